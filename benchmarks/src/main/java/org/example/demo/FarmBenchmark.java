@@ -0,0 +1,86 @@
+package org.example.demo;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lock-free {@link Farm} operations under contention. Every thread works on farm
+ * {@code threadIndex % farms}, so {@code farms=1} puts all threads on one farm's coins and
+ * version and {@code farms=64} gives each its own. Run with {@code -t} to change the thread
+ * count; plot (0,0) is shared by the thieves and up to 15 threads get a plot of their own.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--enable-preview")
+@Threads(4)
+public class FarmBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Farms {
+        @Param({"1", "64"})
+        int farms;
+        Farm[] all;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            all = new Farm[farms];
+            for (int i = 0; i < farms; i++) all[i] = new Farm("f" + i);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Slot {
+        Farm farm;
+        int row, col;
+        byte[] board;
+        // plot (0,0) fully ripe, put back when thieves have picked it clean
+        long ripe;
+
+        @Setup(Level.Iteration)
+        public void pick(Farms farms, ThreadParams thread) {
+            farm = farms.all[thread.getThreadIndex() % farms.farms];
+            int plots = farm.getRows() * farm.getCols();
+            board = new byte[plots];
+            int plot = 1 + thread.getThreadIndex() % (plots - 1);
+            row = plot / farm.getCols();
+            col = plot % farm.getCols();
+            synchronized (farm) {
+                if (farm.getState(0, 0) == PlotState.EMPTY) {
+                    farm.ripen(0, 0, farm.plant(0, 0));
+                }
+            }
+            ripe = farm.wordAt(0);
+        }
+    }
+
+    /** One crop's whole life on the thread's own plot: three CASes on the plot, two on the coins. */
+    @Benchmark
+    public int plantRipenHarvest(Slot s) {
+        s.farm.ripen(s.row, s.col, s.farm.plant(s.row, s.col));
+        s.farm.harvest(s.row, s.col);
+        return s.farm.getCoins();
+    }
+
+    /** Every thread robs plot (0,0) of its farm: the CAS retry loop under real conflicts. */
+    @Benchmark
+    public int stealHotPlot(Slot s) {
+        int got = s.farm.steal(0, 0);
+        if (got == -3) s.farm.restoreWord(0, s.ripe);
+        return got;
+    }
+
+    /** What every push reads: the board into a reused buffer. */
+    @Benchmark
+    public long snapshotInto(Slot s) {
+        return s.farm.snapshotInto(s.board);
+    }
+
+    @Benchmark
+    public PlotState[][] snapshot(Slot s) {
+        return s.farm.snapshot();
+    }
+}
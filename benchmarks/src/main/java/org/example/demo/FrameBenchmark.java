@@ -0,0 +1,56 @@
+package org.example.demo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What one plot change costs a viewer of a {@code side x side} farm: the new shared
+ * {@link FarmFrame}, made from the previous one, and the connection's {@link DeltaTracker}
+ * patch against it. Only the changed plot is re-read and compared, so 64x64 should cost
+ * little more than 4x4 (one 4 KB array copy), not 256 times as much; the full-board
+ * encodings are never built here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--enable-preview")
+@State(Scope.Thread)
+public class FrameBenchmark {
+    @Param({"4", "64"})
+    int side;
+
+    private Farm farm;
+    private FarmFrame frame;
+    private DeltaTracker sent;
+    private int plot;
+
+    @Setup(Level.Trial)
+    public void farm() {
+        FarmSpec spec = new FarmSpec(side, side, Integer.MAX_VALUE / 2,
+                List.of(new FarmSpec.Crop(0, "wheat", 1, 0, 12, 0.20, 0.25)));
+        farm = new Farm("1", spec, false, Farm.Journal.NONE);
+        frame = FarmFrame.encode(farm);
+        sent = new DeltaTracker();
+        sent.markFull(frame, farm.getCoins(), "");
+    }
+
+    /** Plants or harvests the next plot, then encodes and diffs as a push would. */
+    @Benchmark
+    public int changeOnePlot() {
+        int r = plot / side, c = plot % side;
+        plot = (plot + 1) % (side * side);
+        if (farm.getState(r, c) == PlotState.EMPTY) {
+            farm.ripen(r, c, farm.plant(r, c));
+        } else {
+            farm.harvest(r, c);
+        }
+        frame = FarmFrame.encode(farm, frame);
+        sent.diff(frame, farm.getCoins(), "", Map.of(), Set.of());
+        return sent.changedCount();
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.demo;
+
+import java.nio.ByteBuffer;
+
+/** A connection that takes everything and keeps only the byte count, so benchmarks measure encoding, not sockets. */
+final class NullTransport implements Transport {
+    long bytes;
+
+    @Override public void write(byte[] buf, int off, int len) { bytes += len; }
+    @Override public void write(ByteBuffer shared) { bytes += shared.remaining(); }
+    @Override public boolean flush() { return true; }
+    @Override public boolean reply() { return true; }
+    @Override public boolean backlogged() { return false; }
+    @Override public void close() {}
+}
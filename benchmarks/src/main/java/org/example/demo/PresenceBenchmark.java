@@ -0,0 +1,54 @@
+package org.example.demo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out of one player-list change, the job the old {@code broadcastPlayerListUpdate}
+ * did: a {@link PresenceRegistry} flush with {@code subscribers} connections listening.
+ * With {@code ALL} every connection gets the change; with {@code FRIENDS} each one lists
+ * a single player and only the hundredth that lists the changed player is touched.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--enable-preview")
+@State(Scope.Thread)
+public class PresenceBenchmark {
+    @Param({"100", "1000", "10000"})
+    int subscribers;
+
+    @Param({"ALL", "FRIENDS"})
+    String mode;
+
+    private PresenceRegistry registry;
+    private boolean away;
+
+    @Setup(Level.Trial)
+    public void subscribe() throws Exception {
+        // the scheduled flush never comes during a run; the benchmark flushes by itself
+        registry = new PresenceRegistry(3_600_000);
+        // a hundred players online: the cost under test is the fan-out, not the list size
+        for (int i = 0; i < 100; i++) registry.update("p" + i, "p" + i);
+        registry.flush();
+        Server server = new Server(ServerConfig.parse(new String[0]));
+        for (int i = 0; i < subscribers; i++) {
+            PresenceRegistry.Filter filter = mode.equals("ALL")
+                    ? PresenceRegistry.Filter.ALL
+                    : PresenceRegistry.Filter.friends(Set.of("p" + i % 100));
+            registry.subscribe(new ClientHandler(server, new NullTransport()), filter);
+        }
+        registry.awaitIdle();
+    }
+
+    /** Player p0 walks over to p1's farm, or back home. */
+    @Benchmark
+    public void flush() {
+        away = !away;
+        registry.update("p0", away ? "p1" : "p0");
+        registry.flush();
+    }
+}
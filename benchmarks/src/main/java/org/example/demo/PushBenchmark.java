@@ -0,0 +1,56 @@
+package org.example.demo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full state push through the real {@link ClientHandler} path: the per-connection map
+ * from {@code formatMsg} encoded by Gson (or the binary STATE frame) plus the shared
+ * {@link FarmFrame} board, for a connection whose player list holds {@code players} entries.
+ * Logged in without deltas, so every push is a full state.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--enable-preview")
+@State(Scope.Thread)
+public class PushBenchmark {
+    @Param({"json", "bin"})
+    String proto;
+
+    @Param({"10", "1000"})
+    int players;
+
+    private NullTransport out;
+    private ClientHandler handler;
+
+    @Setup(Level.Trial)
+    public void login() throws Exception {
+        Server server = new Server(ServerConfig.parse(new String[]{"--presence-window=1"}));
+        // the other players list nobody, so only this connection's list is big
+        for (int i = 1; i < players; i++) {
+            new ClientHandler(server, new NullTransport())
+                    .onLine("{\"op\":\"login\",\"id\":\"\",\"players\":{\"mode\":\"friends\",\"ids\":[]}}");
+        }
+        out = new NullTransport();
+        handler = new ClientHandler(server, out);
+        handler.onLine("{\"op\":\"login\",\"id\":\"\",\"proto\":\"" + proto + "\"}");
+        // wait for the presence thread to deliver everyone: the push stops growing
+        long size = 0, last = -1;
+        for (int stable = 0; stable < 3; stable = size == last ? stable + 1 : 0) {
+            Thread.sleep(100);
+            last = size;
+            long before = out.bytes;
+            size = push() - before;
+        }
+    }
+
+    @Benchmark
+    public long push() throws Exception {
+        handler.markDirty();
+        handler.pushIfDirty();
+        return out.bytes;
+    }
+}
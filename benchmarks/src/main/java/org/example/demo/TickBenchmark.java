@@ -0,0 +1,89 @@
+package org.example.demo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One ripening tick over many farms, the way one {@link TickShards} shard runs it in eager
+ * growth: advance the {@link RipeningWheel}, ripen every due plot and collect the farms to
+ * broadcast. {@code due} ripens one plot on each of {@code farms} farms in a single tick;
+ * {@code idle} is a tick with all of them still growing, which should cost next to nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--enable-preview")
+public class TickBenchmark {
+    private static final long TICK_MS = 100;
+
+    private static Farm[] farms(int n) {
+        Farm[] all = new Farm[n];
+        for (int i = 0; i < n; i++) all[i] = new Farm(String.valueOf(i + 1));
+        return all;
+    }
+
+    @State(Scope.Thread)
+    public static class Due {
+        @Param({"1000", "100000"})
+        int farms;
+        Farm[] all;
+        RipeningWheel wheel;
+        long deadline;
+
+        @Setup(Level.Trial)
+        public void farms() {
+            all = TickBenchmark.farms(farms);
+        }
+
+        /** A fresh crop on (0,0) of every farm, all due on the same tick. */
+        @Setup(Level.Invocation)
+        public void plant() {
+            wheel = new RipeningWheel(TICK_MS, 512, System.currentTimeMillis());
+            for (Farm f : all) {
+                f.restoreWord(0, PlotWord.EMPTY);
+                f.restoreCoins(FarmSpec.DEFAULT.startCoins());
+                deadline = f.plant(0, 0);
+                wheel.schedule(f, 0, 0, deadline);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Idle {
+        @Param({"1000", "100000"})
+        int farms;
+        RipeningWheel wheel;
+        long now;
+
+        /** Entries that are never due: each tick only walks one bucket's worth of them. */
+        @Setup(Level.Trial)
+        public void schedule() {
+            now = System.currentTimeMillis();
+            wheel = new RipeningWheel(TICK_MS, 512, now);
+            for (Farm f : TickBenchmark.farms(farms)) wheel.schedule(f, 3, 3, Long.MAX_VALUE / 2);
+        }
+    }
+
+    @Benchmark
+    public Set<String> due(Due s) {
+        return tick(s.wheel, s.deadline + TICK_MS);
+    }
+
+    @Benchmark
+    public Set<String> idle(Idle s) {
+        s.now += TICK_MS;
+        return tick(s.wheel, s.now);
+    }
+
+    private static Set<String> tick(RipeningWheel wheel, long now) {
+        Set<String> dirtyOwners = new HashSet<>();
+        wheel.advance(now, e -> {
+            if (e.farm().ripen(e.row(), e.col(), e.deadline())) dirtyOwners.add(e.farm().getId());
+        });
+        return dirtyOwners;
+    }
+}
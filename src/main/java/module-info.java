@@ -2,6 +2,8 @@ module org.example.demo {
     requires javafx.controls;
     requires javafx.fxml;
     requires com.google.gson;
+    requires java.management;
+    requires jdk.httpserver;
 
     opens org.example.demo to javafx.fxml;
     exports org.example.demo;
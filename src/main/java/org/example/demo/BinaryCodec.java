@@ -0,0 +1,379 @@
+package org.example.demo;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact server-to-client framing, negotiated with {@code "proto":"bin"} in the login
+ * request. Requests from the client stay JSON lines. Every frame is
+ * <pre>
+ *  [magic 0xFA][type u8][payload length u32 BE][payload]
+ * </pre>
+ * A full state is two frames: FARM, shared by everyone viewing that farm, then the
+ * connection's own STATE. FARM payload: farmId (str), version (varint), rows (u8),
+ * cols (u8), board as 2-bit plot states packed four per byte row-major. STATE payload:
+ * seq (varint, 0 without deltas), clientId (str), coins (varint), msg (str), then a
+ * player count (varint) and that many (id str, viewing str) pairs. ERROR payload: msg (str).
+ * DELTA payload: seq (varint), flags (u8: 1 = coins follow, 2 = msg follows), [coins],
+ * [msg], changed plot count (varint) and (row u8, col u8, state u8) per plot, changed
+ * player count and (id, viewing) pairs, then removed player count and ids.
+ * REDIRECT payload: player id (str), host (str), port (varint) of the shard to log in to.
+ * ACK payload: rid (varint) of the request it answers, ok (u8), msg (str); read back as
+ * type {@code ack}, or {@code error} when not ok.
+ * BATCH payload: rid + 1 (varint, 0 = none), count (varint), then ok (u8) and msg (str) per item.
+ * SPEC payload, sent once before the first FARM: rows (u8), cols (u8), crop count (varint)
+ * and per crop name (str), growMs, cost, yield (varints); read back as {@code spec}.
+ * A str is a varint byte length followed by UTF-8.
+ */
+final class BinaryCodec {
+    static final int MAGIC = 0xFA;
+    static final int TYPE_STATE = 1;
+    static final int TYPE_ERROR = 2;
+    static final int TYPE_DELTA = 3;
+    static final int TYPE_FARM = 4;
+    static final int TYPE_REDIRECT = 5;
+    static final int TYPE_ACK = 6;
+    static final int TYPE_BATCH = 7;
+    static final int TYPE_SPEC = 8;
+    static final int HEADER_BYTES = 6;
+
+    private static final PlotState[] STATES = PlotState.values();
+
+    private BinaryCodec() {}
+
+    /** Reusable, growable output buffer; one per connection so encoding does not allocate. */
+    static final class Frame {
+        private byte[] buf = new byte[256];
+        private int pos;
+
+        byte[] array() { return buf; }
+        int size() { return pos; }
+
+        void reset() { pos = 0; }
+
+        /** Drops a buffer grown past {@code keep} bytes (a full player list) once its bytes were copied out. */
+        void trim(int keep) {
+            if (buf.length > keep) buf = new byte[256];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+
+        void u8(int v) {
+            ensure(1);
+            buf[pos++] = (byte) v;
+        }
+
+        void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void str(String s) {
+            if (s == null) s = "";
+            int n = s.length();
+            boolean ascii = true;
+            for (int i = 0; i < n && ascii; i++) ascii = s.charAt(i) < 0x80;
+            if (ascii) {
+                varint(n);
+                ensure(n);
+                for (int i = 0; i < n; i++) buf[pos++] = (byte) s.charAt(i);
+            } else {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                varint(b.length);
+                ensure(b.length);
+                System.arraycopy(b, 0, buf, pos, b.length);
+                pos += b.length;
+            }
+        }
+
+        private void begin(int type) {
+            pos = 0;
+            ensure(HEADER_BYTES);
+            buf[pos++] = (byte) MAGIC;
+            buf[pos++] = (byte) type;
+            pos += 4; // length, patched in end()
+        }
+
+        private void end() {
+            int len = pos - HEADER_BYTES;
+            buf[2] = (byte) (len >>> 24);
+            buf[3] = (byte) (len >>> 16);
+            buf[4] = (byte) (len >>> 8);
+            buf[5] = (byte) len;
+        }
+    }
+
+    /** @param board plot state ordinals, row-major, as filled by {@link Farm#snapshotInto} */
+    static void encodeFarm(Frame f, String farmId, long version, int rows, int cols, byte[] board) {
+        f.begin(TYPE_FARM);
+        f.str(farmId);
+        f.varint(version);
+        f.u8(rows);
+        f.u8(cols);
+        int n = rows * cols;
+        for (int i = 0; i < n; i += 4) {
+            int packed = 0;
+            for (int k = 0; k < 4 && i + k < n; k++) packed |= (board[i + k] & 3) << (k * 2);
+            f.u8(packed);
+        }
+        f.end();
+    }
+
+    /** The per-connection half of a full state; always sent right after the viewed farm's FARM frame. */
+    static void encodeState(Frame f, long seq, String clientId, int coins, String msg, Map<String, String> players) {
+        f.begin(TYPE_STATE);
+        f.varint(seq);
+        f.str(clientId);
+        f.varint(coins);
+        f.str(msg);
+        if (players == null) {
+            f.varint(0);
+        } else {
+            f.varint(players.size());
+            for (Map.Entry<String, String> e : players.entrySet()) {
+                f.str(e.getKey());
+                f.str(e.getValue());
+            }
+        }
+        f.end();
+    }
+
+    /** Encodes the patch the tracker computed in its last {@link DeltaTracker#diff}. */
+    static void encodeDelta(Frame f, long seq, DeltaTracker d, int cols, byte[] board, int coins, String msg) {
+        f.begin(TYPE_DELTA);
+        f.varint(seq);
+        f.u8((d.coinsChanged() ? 1 : 0) | (d.msgChanged() ? 2 : 0));
+        if (d.coinsChanged()) f.varint(coins);
+        if (d.msgChanged()) f.str(msg);
+        f.varint(d.changedCount());
+        for (int k = 0; k < d.changedCount(); k++) {
+            int i = d.changedPlot(k);
+            f.u8(i / cols);
+            f.u8(i % cols);
+            f.u8(board[i]);
+        }
+        f.varint(d.playerUpserts().size());
+        for (Map.Entry<String, String> e : d.playerUpserts().entrySet()) {
+            f.str(e.getKey());
+            f.str(e.getValue());
+        }
+        f.varint(d.playersRemoved().size());
+        for (String id : d.playersRemoved()) f.str(id);
+        f.end();
+    }
+
+    static void encodeSpec(Frame f, FarmSpec spec) {
+        f.begin(TYPE_SPEC);
+        f.u8(spec.rows());
+        f.u8(spec.cols());
+        f.varint(spec.crops());
+        for (int i = 0; i < spec.crops(); i++) {
+            FarmSpec.Crop c = spec.crop(i);
+            f.str(c.name());
+            f.varint(c.growMs());
+            f.varint(c.cost());
+            f.varint(c.yield());
+        }
+        f.end();
+    }
+
+    static void encodeError(Frame f, String msg) {
+        f.begin(TYPE_ERROR);
+        f.str(msg);
+        f.end();
+    }
+
+    static void encodeAck(Frame f, long rid, boolean ok, String msg) {
+        f.begin(TYPE_ACK);
+        f.varint(rid);
+        f.u8(ok ? 1 : 0);
+        f.str(msg == null ? "" : msg);
+        f.end();
+    }
+
+    static void encodeBatch(Frame f, long rid, List<Server.Outcome> results) {
+        f.begin(TYPE_BATCH);
+        f.varint(rid + 1);
+        f.varint(results.size());
+        for (Server.Outcome o : results) {
+            f.u8(o.ok() ? 1 : 0);
+            f.str(o.msg() == null ? "" : o.msg());
+        }
+        f.end();
+    }
+
+    static void encodeRedirect(Frame f, String id, String host, int port) {
+        f.begin(TYPE_REDIRECT);
+        f.str(id);
+        f.str(host);
+        f.varint(port);
+        f.end();
+    }
+
+    /**
+     * Reads one frame and returns it in the same shape as the JSON messages
+     * ({@code type}, {@code seq}, {@code clientId}, {@code coins}, {@code board}, {@code msg},
+     * {@code players}; deltas carry {@code plots} as [row, col, state] and {@code left}),
+     * so the client handles both protocols the same way. A FARM frame and the STATE frame
+     * after it come back as one state message, as does a SPEC frame before them.
+     */
+    static Map<String, Object> read(DataInputStream in) throws IOException {
+        Map<String, Object> msg = new HashMap<>();
+        int type = readFrame(in, msg);
+        if (type == TYPE_SPEC) {
+            type = readFrame(in, msg);
+            if (type != TYPE_FARM) throw new IOException("SPEC frame without FARM");
+        }
+        if (type == TYPE_FARM) {
+            if (readFrame(in, msg) != TYPE_STATE) throw new IOException("FARM frame without STATE");
+        }
+        return msg;
+    }
+
+    /** Reads one frame into {@code msg}. @return its type */
+    private static int readFrame(DataInputStream in, Map<String, Object> msg) throws IOException {
+        int magic = in.readUnsignedByte();
+        if (magic != MAGIC) throw new IOException("bad frame magic " + magic);
+        int type = in.readUnsignedByte();
+        int len = in.readInt();
+        byte[] payload = new byte[len];
+        in.readFully(payload);
+        Reader r = new Reader(payload);
+
+        switch (type) {
+            case TYPE_ERROR -> {
+                msg.put("type", "error");
+                msg.put("msg", r.str());
+            }
+            case TYPE_DELTA -> readDelta(r, msg);
+            case TYPE_ACK -> {
+                msg.put("rid", r.varint());
+                msg.put("type", r.u8() != 0 ? "ack" : "error");
+                msg.put("msg", r.str());
+            }
+            case TYPE_BATCH -> {
+                msg.put("type", "batch");
+                long rid = r.varint() - 1;
+                if (rid >= 0) msg.put("rid", rid);
+                int n = (int) r.varint();
+                List<Map<String, Object>> results = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    Map<String, Object> item = new HashMap<>();
+                    item.put("ok", r.u8() != 0);
+                    item.put("msg", r.str());
+                    results.add(item);
+                }
+                msg.put("results", results);
+            }
+            case TYPE_REDIRECT -> {
+                msg.put("type", "redirect");
+                msg.put("id", r.str());
+                msg.put("host", r.str());
+                msg.put("port", (int) r.varint());
+            }
+            case TYPE_FARM -> {
+                r.str(); // farmId
+                r.varint(); // version
+                int rows = r.u8(), cols = r.u8();
+                List<List<String>> board = new ArrayList<>(rows);
+                int packed = 0;
+                for (int i = 0; i < rows * cols; i++) {
+                    if (i % 4 == 0) packed = r.u8();
+                    if (i % cols == 0) board.add(new ArrayList<>(cols));
+                    board.get(i / cols).add(STATES[(packed >>> ((i % 4) * 2)) & 3].name());
+                }
+                msg.put("board", board);
+            }
+            case TYPE_SPEC -> {
+                Map<String, Object> spec = new HashMap<>();
+                spec.put("rows", r.u8());
+                spec.put("cols", r.u8());
+                int n = (int) r.varint();
+                List<Map<String, Object>> crops = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    crops.add(Map.of("name", r.str(), "growMs", r.varint(), "cost", (int) r.varint(), "yield", (int) r.varint()));
+                }
+                spec.put("crops", crops);
+                msg.put("spec", spec);
+            }
+            case TYPE_STATE -> {
+                msg.put("type", "state");
+                msg.put("seq", r.varint());
+                msg.put("clientId", r.str());
+                msg.put("coins", (int) r.varint());
+                msg.put("msg", r.str());
+                int players = (int) r.varint();
+                if (players > 0) {
+                    Map<String, String> map = new HashMap<>();
+                    for (int i = 0; i < players; i++) map.put(r.str(), r.str());
+                    msg.put("players", map);
+                }
+            }
+            default -> throw new IOException("unknown frame type " + type);
+        }
+        return type;
+    }
+
+    private static void readDelta(Reader r, Map<String, Object> msg) {
+        msg.put("type", "delta");
+        msg.put("seq", r.varint());
+        int flags = r.u8();
+        if ((flags & 1) != 0) msg.put("coins", (int) r.varint());
+        if ((flags & 2) != 0) msg.put("msg", r.str());
+        int plots = (int) r.varint();
+        List<List<Object>> changed = new ArrayList<>(plots);
+        for (int i = 0; i < plots; i++) {
+            changed.add(List.of(r.u8(), r.u8(), STATES[r.u8()].name()));
+        }
+        msg.put("plots", changed);
+        int upserts = (int) r.varint();
+        if (upserts > 0) {
+            Map<String, String> map = new HashMap<>();
+            for (int i = 0; i < upserts; i++) map.put(r.str(), r.str());
+            msg.put("players", map);
+        }
+        int removed = (int) r.varint();
+        if (removed > 0) {
+            List<String> left = new ArrayList<>(removed);
+            for (int i = 0; i < removed; i++) left.add(r.str());
+            msg.put("left", left);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf) { this.buf = buf; }
+
+        int u8() { return buf[pos++] & 0xFF; }
+
+        long varint() {
+            long v = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = u8();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+        }
+
+        String str() {
+            int n = (int) varint();
+            String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+            pos += n;
+            return s;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ToggleButton;
 import javafx.scene.control.TextInputDialog;
@@ -41,6 +42,9 @@ public class CSController {
 
     @FXML private Button connectButton;
 
+    // what to plant; filled from the server's crop list
+    @FXML private ChoiceBox<String> cropChoice;
+
     private GameClient client;
     private int rows = 4, cols = 4;
     private ToggleButton[][] cells;
@@ -58,10 +62,17 @@ public class CSController {
     private int coins = 0;
     private String serverHost;
     private int serverPort;
+    private boolean binaryProtocol;
 
     public void init(String host, int port) throws IOException {
+        init(host, port, false);
+    }
+
+    /** @param binaryProtocol receive compact binary state frames instead of JSON */
+    public void init(String host, int port, boolean binaryProtocol) throws IOException {
         this.serverHost = host;
         this.serverPort = port;
+        this.binaryProtocol = binaryProtocol;
         handleConnect();
     }
 
@@ -90,7 +101,7 @@ public class CSController {
                 if (client != null) {
                     try { client.close(); } catch (Exception ignore) {}
                 }
-                client = new GameClient(serverHost, serverPort, this);
+                client = new GameClient(serverHost, serverPort, this, binaryProtocol);
                 connected = client.connect(result.get());
                 if (connected) {
                     cellState = new PlotState[rows][cols];
@@ -123,10 +134,12 @@ public class CSController {
     private void createBoard() {
         gameBoard.getChildren().clear();
         cells = new ToggleButton[rows][cols];
+        // 60px for the classic 4x4, smaller cells for large farms
+        double size = Math.max(20, Math.min(60, 480 / Math.max(rows, cols)));
         for (int row = 0; row < rows; row++) {
             for (int col = 0; col < cols; col++) {
                 ToggleButton cell = new ToggleButton();
-                cell.setPrefSize(60, 60);
+                cell.setPrefSize(size, size);
                 cell.getStyleClass().add("plot-button");
                 int r = row;
                 int c = col;
@@ -202,8 +215,14 @@ public class CSController {
             myClientId = String.valueOf(clientIdObj);
             clientID.setText(STR."player: \{myClientId}");
         }
+        if (state.get("spec") instanceof Map<?,?> spec) {
+            applySpec(spec);
+        }
         Object boardObj = state.get("board");
         if (boardObj instanceof List<?> outer) {
+            if (!outer.isEmpty() && (outer.size() != rows || ((List<?>) outer.get(0)).size() != cols)) {
+                resize(outer.size(), ((List<?>) outer.get(0)).size());
+            }
             for (int i = 0; i < rows; i++) {
                 List<?> rowList = (List<?>) outer.get(i);
                 for (int j = 0; j < cols; j++) {
@@ -226,6 +245,59 @@ public class CSController {
         renderStatus();
     }
 
+    /** The farm config from the welcome: board size and the crops that can be planted. */
+    private void applySpec(Map<?,?> spec) {
+        resize(((Number) spec.get("rows")).intValue(), ((Number) spec.get("cols")).intValue());
+        if (cropChoice != null && spec.get("crops") instanceof List<?> crops) {
+            List<String> names = new ArrayList<>();
+            for (Object c : crops) names.add(String.valueOf(((Map<?,?>) c).get("name")));
+            cropChoice.getItems().setAll(names);
+            if (!names.isEmpty()) cropChoice.setValue(names.get(0));
+        }
+    }
+
+    private void resize(int newRows, int newCols) {
+        if (newRows == rows && newCols == cols) return;
+        rows = newRows;
+        cols = newCols;
+        selectedRow = selectedCol = -1;
+        cellState = new PlotState[rows][cols];
+        createBoard();
+    }
+
+    /** Applies a patch: only changed plots, coins/msg if present, and player-list changes. */
+    public void handleDelta(Map<String,Object> delta) {
+        Object c = delta.get("coins");
+        if (c instanceof Number n) coins = n.intValue();
+        Object m = delta.get("msg");
+        if (m != null) statusMsg = String.valueOf(m);
+        Object plotsObj = delta.get("plots");
+        if (plotsObj instanceof List<?> plots && cellState != null) {
+            // patches never change the board size; a full state comes first when it does
+            for (Object p : plots) {
+                List<?> plot = (List<?>) p; // [row, col, "STATE"]
+                int r = ((Number) plot.get(0)).intValue();
+                int col = ((Number) plot.get(1)).intValue();
+                cellState[r][col] = PlotState.valueOf(String.valueOf(plot.get(2)));
+            }
+        }
+        Object playersObj = delta.get("players");
+        Object leftObj = delta.get("left");
+        if (playersObj instanceof Map<?,?> changed) {
+            changed.forEach((k, v) -> players.put(String.valueOf(k), String.valueOf(v)));
+        }
+        if (leftObj instanceof List<?> left) {
+            left.forEach(id -> players.remove(String.valueOf(id)));
+        }
+        if (playersObj != null || leftObj != null) {
+            currentViewingId = players.get(myClientId);
+            updatePlayersList();
+            updateActionButtons();
+        }
+        refreshBoard();
+        renderStatus();
+    }
+
     public void handleError(String err) {
         if (err != null && err.toLowerCase().contains("disconnect")) {
             handleConnectionFailure(err);
@@ -293,7 +365,9 @@ public class CSController {
     @FXML private void handlePlant() {
         if (!ensureSelection()) { statusMsg = "Select a plot first."; renderStatus(); return; }
         try {
-            client.plant(selectedRow, selectedCol);
+            String crop = cropChoice == null ? null : cropChoice.getValue();
+            if (crop == null) client.plant(selectedRow, selectedCol);
+            else client.plant(selectedRow, selectedCol, crop);
             statusMsg = "Plant requested...";
             renderStatus();
         } catch (Exception e) { onError(e.getMessage()); }
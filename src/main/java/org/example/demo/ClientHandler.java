@@ -4,23 +4,49 @@ import com.google.gson.Gson;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ClientHandler implements Runnable {
     private static final Gson GSON = new Gson();
-    private String msg;
+    private static final PlotState[] STATES = PlotState.values();
+    private volatile String msg;
     private final Server server;
     private final Socket socket;
+    private volatile Transport transport;
     private Farm farm;
-    private Map<String, String> playerList; //玩家列表
     private volatile String playerId;
     private volatile String viewingId;
     private volatile boolean running = true;
 
     private final AtomicBoolean dirty = new AtomicBoolean(true);
+    // serializes writeState/writeError so pushes from different threads never interleave,
+    // and guards the reusable board buffers below
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // negotiated at login: binary frames instead of JSON lines for everything we send
+    private volatile boolean binary;
+    private final BinaryCodec.Frame frame = new BinaryCodec.Frame();
+    private String jsonOut; // the encoded line when not binary; guarded by writeLock
+    private static final byte[] JSON_TAIL = "}\n".getBytes(StandardCharsets.UTF_8);
+    // encode buffers larger than this are let go after a push instead of kept per connection
+    private static final int KEEP_BUFFER = 4096;
+    // negotiated at login: push patches against what this connection was last sent
+    private volatile boolean deltas;
+    private final DeltaTracker sent = new DeltaTracker();
+    // the welcome carries the farm config (size, crops); guarded by writeLock
+    private boolean specPending = true;
+    // 玩家列表: which slice of the registry's shared table this connection lists, the table
+    // version it has caught up to, and what changed since the last push; fed by the
+    // presence thread. presenceLock never waits on I/O
+    private final ReentrantLock presenceLock = new ReentrantLock();
+    private PresenceRegistry.Filter playerFilter = PresenceRegistry.Filter.ALL;
+    private final Map<String, String> playerUpserts = new HashMap<>();
+    private final Set<String> playersLeft = new HashSet<>();
+    private long presenceVersion = -1;
+    private boolean playersReset; // out of step with the registry: the next push is a full state
 
 
     public ClientHandler(Server server, Socket socket) {
@@ -29,138 +55,460 @@ public class ClientHandler implements Runnable {
         msg = "";
     }
 
-    public void markDirty() { dirty.set(true); }
+    /** Handler driven by the NIO core: lines arrive via {@link #onLine}, output goes to {@code transport}. */
+    ClientHandler(Server server, Transport transport) {
+        this.server = server;
+        this.socket = null;
+        this.transport = transport;
+        msg = "";
+    }
+
+    public void markDirty() {
+        dirty.set(true);
+        Transport t = transport;
+        if (t != null) t.wakeup();
+    }
 
+    /**
+     * Blocking read path for the thread core. Requests are answered inline; pushes caused
+     * by other players go out on a separate pusher thread that parks until {@link #markDirty}.
+     */
     @Override public void run() {
-        System.out.println(STR."[ClientHandler] connected: \{socket}");
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))) {
-            
+        Log.debug("[ClientHandler] connected: {}", socket);
+        // the pusher runs on the same kind of thread as this reader (platform or virtual)
+        Thread.Builder builder = Thread.currentThread().isVirtual() ? Thread.ofVirtual() : Thread.ofPlatform();
+        Thread pusher = builder.name("push-" + socket.getPort()).unstarted(this::pushLoop);
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            transport = new StreamTransport(socket, pusher, server.getConfig(), server.metrics());
+
             // Handshake
             String handshake = in.readLine();
-            if (handshake == null) return;
-            
-            Map<?,?> loginReq = GSON.fromJson(handshake, Map.class);
-            if ("login".equals(loginReq.get("op"))) {
-                String reqId = (String) loginReq.get("id");
-                Server.LoginResult result = server.login(reqId, this);
-                this.playerId = result.id();
-                this.farm = result.farm();
-                this.viewingId = this.playerId;
-            } else {
-                System.err.println("Invalid handshake");
-                return;
-            }
-
-            msg = "welcome";
-            writeState(out, farm);
+            if (handshake == null || !onLine(handshake)) return;
+            pusher.start();
 
             String line;
-            while (running && !socket.isClosed()) {
-
-                if (in.ready() && (line = in.readLine()) != null) {
-                    try {
-                        Map<?,?> request = GSON.fromJson(line, Map.class);
-                        String op = (String) request.get("op");
-                        if ("plant".equals(op)) {
-                            int r = ((Double) request.get("row")).intValue();
-                            int c = ((Double) request.get("col")).intValue();
-                            farm.plant(r, c);
-                            msg = STR."planted at (\{r}, \{c})";
-                            writeState(out, farm);
-                            dirty.set(true);
-                            server.broadcastState(playerId);
-                        } else if ("harvest".equals(op)) {
-                            int r = ((Double) request.get("row")).intValue();
-                            int c = ((Double) request.get("col")).intValue();
-                            farm.harvest(r, c);
-                            msg = STR."harvest at (\{r}, \{c})";
-                            writeState(out, farm);
-                            dirty.set(true);
-                            server.broadcastState(playerId);
-                        } else if ("steal".equals(op)) {
-                            int r = ((Double) request.get("row")).intValue();
-                            int c = ((Double) request.get("col")).intValue();
-                            String rsp = server.handleSteal(playerId, viewingId, r, c);
-                            msg = rsp;
-                            dirty.set(true);
-                        } else if ("view".equals(op)) {
-                            String target = (String) request.get("target");
-                            viewingId = target;
-                            server.setView(playerId, viewingId);
-                        } else if ("quit".equals(op)) {
-                            quit();
-                        } else {
-                            writeError(out, "unknown op");
-                        }
-                    } catch (Exception ex) {
-                        writeError(out, ex.getMessage());
-                    }
-                }
+            while (running && (line = in.readLine()) != null) {
+                onLine(line);
+                pushIfDirty();
+            }
+        } catch (Exception e) {
+            Log.info("[Client] closed: {}", e.getMessage());
+        } finally {
+            onClose();
+            LockSupport.unpark(pusher);
+        }
+    }
 
-                if (dirty.compareAndSet(true, false)) {
-                    Farm viewingFarm = server.getFarm(viewingId);
-                    writeState(out, viewingFarm);
+    /** Pusher thread: the only one writing to the socket; pushes the latest state whenever the queue drains. */
+    private void pushLoop() {
+        StreamTransport out = (StreamTransport) transport;
+        try {
+            while (running) {
+                if (!dirty.get() && !out.backlogged()) {
+                    LockSupport.park(this);
                 }
+                out.drain();
+                pushIfDirty();
+            }
+        } catch (IOException e) {
+            // the reader sees the broken socket and cleans up
+            try { transport.close(); } catch (IOException ignore) {}
+        } catch (RuntimeException e) {
+            // without a pusher the client would never see another push: drop the connection
+            Log.error("[ClientHandler] push failed for " + playerId, e);
+            try { transport.close(); } catch (IOException ignore) {}
+        }
+    }
 
-                Thread.sleep(10);
+    /**
+     * Handles one request line. The first line must be the login handshake.
+     * A request carrying {@code "rid"} is answered with an {@code ack} (or an {@code error})
+     * naming that rid, in request order, and its state change follows as a normal push;
+     * so a client can keep many requests in flight and match every result.
+     * The time from here until the answer is written goes into {@link Metrics#op}.
+     * @return false if the connection should be dropped
+     */
+    boolean onLine(String line) throws IOException {
+        long start = System.nanoTime();
+        if (playerId == null) {
+            try {
+                return handshake(line);
+            } finally {
+                server.metrics().op("login").record(System.nanoTime() - start);
+            }
+        }
+        long rid = -1;
+        String op = null;
+        try {
+            Map<?,?> request = GSON.fromJson(line, Map.class);
+            op = (String) request.get("op");
+            if (request.get("rid") instanceof Number n) rid = n.longValue();
+            String result = "ok";
+            if ("plant".equals(op)) {
+                int r = ((Double) request.get("row")).intValue();
+                int c = ((Double) request.get("col")).intValue();
+                long ripeAt = server.plant(farm, r, c, (String) request.get("crop"));
+                server.scheduleRipening(farm, r, c, ripeAt);
+                msg = result = STR."planted at (\{r}, \{c})";
+                if (rid < 0) writeState(farm);
+                dirty.set(true);
+                server.broadcastState(playerId);
+            } else if ("harvest".equals(op)) {
+                int r = ((Double) request.get("row")).intValue();
+                int c = ((Double) request.get("col")).intValue();
+                server.harvest(farm, r, c);
+                msg = result = STR."harvest at (\{r}, \{c})";
+                if (rid < 0) writeState(farm);
+                dirty.set(true);
+                server.broadcastState(playerId);
+            } else if ("steal".equals(op)) {
+                int r = ((Double) request.get("row")).intValue();
+                int c = ((Double) request.get("col")).intValue();
+                String rsp = server.handleSteal(playerId, viewingId, r, c);
+                msg = result = rsp;
+                dirty.set(true);
+            } else if ("batch".equals(op)) {
+                // {"op":"batch","actions":[{"op":"harvest","row":0,"col":0}, ...]}: one answer, one push
+                List<Server.Action> actions = new ArrayList<>();
+                for (Object item : (List<?>) request.get("actions")) {
+                    Map<?,?> a = (Map<?,?>) item;
+                    actions.add(new Server.Action((String) a.get("op"),
+                            ((Number) a.get("row")).intValue(), ((Number) a.get("col")).intValue(), (String) a.get("crop")));
+                }
+                List<Server.Outcome> results = server.batch(playerId, viewingId, actions);
+                long done = results.stream().filter(Server.Outcome::ok).count();
+                msg = STR."batch: \{done} of \{results.size()} done";
+                writeBatch(rid, results);
+                dirty.set(true);
+                server.broadcastState(playerId);
+                return true;
+            } else if ("view".equals(op)) {
+                String target = (String) request.get("target");
+                if (!server.hasFarm(target)) throw new IllegalArgumentException("No such farm: " + target);
+                viewingId = target;
+                server.setView(playerId, viewingId);
+                result = "viewing " + target;
+            } else if ("players".equals(op)) {
+                // {"op":"players","mode":"all"|"page"|"friends","offset":0,"limit":50,"ids":[...]}
+                server.subscribePlayers(this, playerFilter(request));
+            } else if ("resync".equals(op)) {
+                // client saw a sequence gap; the next push is a full state
+                writeLock.lock();
+                try {
+                    sent.requestResync();
+                } finally {
+                    writeLock.unlock();
+                }
+                dirty.set(true);
+            } else if ("quit".equals(op)) {
+                quit();
+                return true;
+            } else {
+                throw new IllegalArgumentException("unknown op");
+            }
+            if (rid >= 0) writeAck(rid, true, result);
+        } catch (Exception ex) {
+            server.metrics().opErrors.increment();
+            if (rid >= 0) {
+                writeAck(rid, false, ex.getMessage());
+            } else {
+                writeError(ex.getMessage());
             }
-        } catch (Exception e) {
-            System.out.println(STR."[Client] closed: \{e.getMessage()}");
         } finally {
-            if (playerId != null) {
-                server.removeClient(playerId);
+            server.metrics().op(op).record(System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    private static PresenceRegistry.Filter playerFilter(Map<?,?> request) {
+        Object mode = request.get("mode");
+        if (mode == null || "all".equals(mode)) {
+            return PresenceRegistry.Filter.ALL;
+        } else if ("page".equals(mode)) {
+            Object offset = request.get("offset"), limit = request.get("limit");
+            return PresenceRegistry.Filter.page(
+                    offset == null ? 0 : ((Double) offset).intValue(),
+                    limit == null ? 50 : ((Double) limit).intValue());
+        } else if ("friends".equals(mode) && request.get("ids") instanceof List<?> ids) {
+            return PresenceRegistry.Filter.friends(ids.stream().map(String::valueOf).toList());
+        }
+        throw new IllegalArgumentException("bad players mode");
+    }
+
+    private boolean handshake(String line) throws IOException {
+        Map<?,?> loginReq = GSON.fromJson(line, Map.class);
+        if (loginReq == null || !"login".equals(loginReq.get("op"))) {
+            Log.warn("Invalid handshake: {}", line);
+            return false;
+        }
+        String reqId = (String) loginReq.get("id");
+        binary = "bin".equals(loginReq.get("proto"));
+        if (reqId != null && !reqId.isEmpty()) {
+            Cluster.Node home = server.homeOf(reqId);
+            if (home != null) {
+                // that farm lives on another shard; the client logs in again there
+                writeRedirect(reqId, home);
+                return true;
             }
         }
+        deltas = Boolean.TRUE.equals(loginReq.get("delta"));
+        // optional "players": {...} picks the list subscription up front (default: everyone)
+        PresenceRegistry.Filter players = loginReq.get("players") instanceof Map<?,?> spec
+                ? playerFilter(spec) : PresenceRegistry.Filter.ALL;
+        presenceLock.lock();
+        try {
+            playerFilter = players; // the welcome lists this slice, so subscribing finds it in step
+        } finally {
+            presenceLock.unlock();
+        }
+        Server.LoginResult result = server.login(reqId, this, players);
+        this.playerId = result.id();
+        this.farm = result.farm();
+        this.viewingId = this.playerId;
+
+        msg = "welcome";
+        writeState(farm);
+        return true;
+    }
+
+    /**
+     * Sends the viewed farm if something changed since the last push. While earlier output
+     * is still queued the push waits, so any number of changes to a farm a slow client
+     * is watching collapse into one state encoded once the queue drains.
+     */
+    void pushIfDirty() throws IOException {
+        if (playerId != null && !transport.backlogged() && dirty.compareAndSet(true, false)) {
+            Farm viewingFarm = server.getFarm(viewingId);
+            writeState(viewingFarm);
+        }
+    }
+
+    /** Connection is gone; unregister from the server. */
+    void onClose() {
+        running = false;
+        if (playerId != null) {
+            server.removeClient(playerId);
+        }
     }
 
     private void quit() {
         try {
-            socket.close();
-            System.out.println(playerId + "QUIT");
+            running = false;
+            transport.close();
+            Log.info("{} QUIT", playerId);
             server.removeClient(playerId);
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("[ClientHandler] quit failed", e);
         }
     }
 
-    private void writeState(BufferedWriter out, Farm targetFarm) throws IOException {
-        out.write(GSON.toJson(formatMsg(targetFarm)));
-        out.write("\n");
-        out.flush();
+    private void writeState(Farm targetFarm) throws IOException {
+        // the board is encoded once per farm change and shared by every viewer;
+        // only the small per-connection part is encoded here
+        FarmFrame view = server.frameOf(targetFarm);
+        writeLock.lock();
+        try {
+            int coins = this.farm.getCoins();
+            boolean full;
+            // encode under presenceLock, write after it, so a slow socket never stalls the presence thread
+            presenceLock.lock();
+            try {
+                full = !deltas || playersReset || sent.needsFull(view);
+                if (full) {
+                    // the list comes from the registry's table; changes up to its version are in it
+                    PresenceRegistry.Table players = server.players();
+                    encodeFull(view, coins, players.view(playerFilter, playerId));
+                    presenceVersion = players.version();
+                    playersReset = false;
+                } else if (!encodeDelta(view, coins)) {
+                    return; // nothing new for this client
+                }
+                // the list changes are in this push now (a full state carries the whole list)
+                playerUpserts.clear();
+                playersLeft.clear();
+            } finally {
+                presenceLock.unlock();
+            }
+            if (binary) {
+                if (full && specPending) transport.write(server.getConfig().getFarmSpec().binary());
+                if (full) transport.write(view.binary());
+                transport.write(frame.array(), 0, frame.size());
+                frame.trim(KEEP_BUFFER);
+            } else if (full) {
+                byte[] head = jsonOut.getBytes(StandardCharsets.UTF_8);
+                transport.write(head, 0, head.length);
+                transport.write(view.json());
+                transport.write(JSON_TAIL, 0, JSON_TAIL.length);
+            } else {
+                transport.writeLine(jsonOut);
+            }
+            jsonOut = null; // may hold the whole player list; copied out now
+            if (full) specPending = false;
+            if (!transport.flush()) fellBehind();
+        } finally {
+            writeLock.unlock();
+        }
     }
-    private Map<String,Object> formatMsg(Farm farm){
+
+    /**
+     * Encodes this connection's part of a full state: the STATE frame into {@code frame}, or
+     * the JSON object up to {@code "board":} into {@code jsonOut}. Caller holds both locks.
+     */
+    private void encodeFull(FarmFrame view, int coins, Map<String, String> players) {
+        long seq = 0;
+        if (deltas) {
+            seq = sent.markFull(view, coins, msg);
+        }
+        if (binary) {
+            BinaryCodec.encodeState(frame, seq, playerId, coins, msg, players);
+        } else {
+            String json = GSON.toJson(formatMsg(coins, seq, players));
+            jsonOut = json.substring(0, json.length() - 1) + ",\"board\":";
+        }
+    }
+
+    /** Encodes a patch against what was last sent. Caller holds both locks. @return false if nothing changed */
+    private boolean encodeDelta(FarmFrame view, int coins) {
+        long seq = sent.diff(view, coins, msg, playerUpserts, playersLeft);
+        if (seq < 0) return false;
+        if (binary) {
+            BinaryCodec.encodeDelta(frame, seq, sent, view.cols(), view.board(), coins, msg);
+        } else {
+            jsonOut = GSON.toJson(formatDelta(seq, view, coins));
+        }
+        return true;
+    }
+
+    /** Per-connection fields of a state message; the board is appended from the shared {@link FarmFrame}. */
+    private Map<String,Object> formatMsg(int coins, long seq, Map<String, String> players){
         Map<String,Object> rsp = new HashMap<>();
         rsp.put("clientId", playerId);
         rsp.put("type","state");
         rsp.put("msg", msg);
-        rsp.put("coins", this.farm.getCoins());
-
-        PlotState[][] b = farm.snapshot();
-        String[][] arr = new String[b.length][b[0].length];
-        for (int i=0;i<b.length;i++)
-            for (int j=0;j<b[0].length;j++)
-                arr[i][j] = b[i][j].name();
-        rsp.put("board", arr);
-
-        if (playerList != null) {
-            rsp.put("players", playerList);
+        rsp.put("coins", coins);
+        if (deltas) {
+            rsp.put("seq", seq);
+        }
+        rsp.put("players", players);
+        if (specPending) {
+            rsp.put("spec", server.getConfig().getFarmSpec().describe());
         }
 
         return rsp;
     }
 
-    private void writeError(BufferedWriter out, String msg) throws IOException {
+    /** The patch {@code sent} just computed, as a JSON message. */
+    private Map<String,Object> formatDelta(long seq, FarmFrame view, int coins) {
         Map<String,Object> rsp = new HashMap<>();
-        rsp.put("type","error");
-        rsp.put("msg", msg);
-        out.write(GSON.toJson(rsp));
-        out.write("\n");
-        out.flush();
+        rsp.put("type","delta");
+        rsp.put("seq", seq);
+        if (sent.coinsChanged()) rsp.put("coins", coins);
+        if (sent.msgChanged()) rsp.put("msg", msg);
+        List<Object[]> plots = new ArrayList<>(sent.changedCount());
+        int cols = view.cols();
+        for (int k = 0; k < sent.changedCount(); k++) {
+            int i = sent.changedPlot(k);
+            plots.add(new Object[]{i / cols, i % cols, STATES[view.board()[i]].name()});
+        }
+        rsp.put("plots", plots);
+        if (!sent.playerUpserts().isEmpty()) rsp.put("players", sent.playerUpserts());
+        if (!sent.playersRemoved().isEmpty()) rsp.put("left", sent.playersRemoved());
+        return rsp;
+    }
+
+    /**
+     * The outbound queue refused a message, so the client's view is now stale. Once the
+     * queue drains it gets a full state instead of the messages it missed; caller holds writeLock.
+     */
+    private void fellBehind() {
+        sent.requestResync();
+        dirty.set(true);
+    }
+
+    private void writeError(String msg) throws IOException {
+        writeLock.lock();
+        try {
+            if (binary) {
+                BinaryCodec.encodeError(frame, msg);
+                transport.write(frame.array(), 0, frame.size());
+            } else {
+                Map<String,Object> rsp = new HashMap<>();
+                rsp.put("type","error");
+                rsp.put("msg", msg);
+                transport.writeLine(GSON.toJson(rsp));
+            }
+            transport.reply();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    /** The answer to request {@code rid}: {@code ack}, or {@code error} with the reason. */
+    private void writeAck(long rid, boolean ok, String text) throws IOException {
+        writeLock.lock();
+        try {
+            if (binary) {
+                BinaryCodec.encodeAck(frame, rid, ok, text);
+                transport.write(frame.array(), 0, frame.size());
+            } else {
+                Map<String,Object> rsp = new HashMap<>();
+                rsp.put("type", ok ? "ack" : "error");
+                rsp.put("rid", rid);
+                rsp.put("msg", text);
+                transport.writeLine(GSON.toJson(rsp));
+            }
+            transport.reply();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Per-item results of a batch, in item order; {@code rid} is -1 if the request had none. */
+    private void writeBatch(long rid, List<Server.Outcome> results) throws IOException {
+        writeLock.lock();
+        try {
+            if (binary) {
+                BinaryCodec.encodeBatch(frame, rid, results);
+                transport.write(frame.array(), 0, frame.size());
+            } else {
+                Map<String,Object> rsp = new HashMap<>();
+                rsp.put("type", "batch");
+                if (rid >= 0) rsp.put("rid", rid);
+                rsp.put("results", results);
+                transport.writeLine(GSON.toJson(rsp));
+            }
+            transport.reply();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeRedirect(String id, Cluster.Node home) throws IOException {
+        writeLock.lock();
+        try {
+            if (binary) {
+                BinaryCodec.encodeRedirect(frame, id, home.host(), home.port());
+                transport.write(frame.array(), 0, frame.size());
+            } else {
+                Map<String,Object> rsp = new HashMap<>();
+                rsp.put("type", "redirect");
+                rsp.put("id", id);
+                rsp.put("host", home.host());
+                rsp.put("port", home.port());
+                transport.writeLine(GSON.toJson(rsp));
+            }
+            transport.flush();
+        } finally {
+            writeLock.unlock();
+        }
     }
     public String getPlayerId() {
         return playerId;
     }
+    /** Shows {@code text} as this player's message in the next push, e.g. a late steal result. */
+    void tell(String text) {
+        msg = text;
+        markDirty();
+    }
     public void setViewingId(String s) {
         this.viewingId = s;
     }
@@ -169,8 +517,66 @@ public class ClientHandler implements Runnable {
         return farm;
     }
 
-    public void updatePlayerList(Map<String, String> players) {
-        this.playerList = players;
+    /**
+     * A (re)subscription, from the presence thread, with the table as of now. If this
+     * connection is in step with that table the next push carries only the difference
+     * between the old and new slice; otherwise it gets a full state.
+     */
+    void subscribed(PresenceRegistry.Filter filter, PresenceRegistry.Table table) {
+        presenceLock.lock();
+        try {
+            PresenceRegistry.Filter old = playerFilter;
+            playerFilter = filter;
+            if (playersReset) return;
+            if (presenceVersion != table.version()) {
+                // missed changes made before this subscription was registered
+                playersReset = true;
+                playerUpserts.clear();
+                playersLeft.clear();
+            } else {
+                if (filter.equals(old)) return; // e.g. the login's own subscription
+                Map<String, String> was = table.view(old, playerId);
+                Map<String, String> now = table.view(filter, playerId);
+                for (String id : was.keySet()) {
+                    if (!now.containsKey(id)) {
+                        playersLeft.add(id);
+                        playerUpserts.remove(id);
+                    }
+                }
+                for (Map.Entry<String, String> e : now.entrySet()) {
+                    if (!e.getValue().equals(was.get(e.getKey()))) playerUpserts.put(e.getKey(), e.getValue());
+                    playersLeft.remove(e.getKey());
+                }
+                if (playerUpserts.isEmpty() && playersLeft.isEmpty()) return;
+            }
+        } finally {
+            presenceLock.unlock();
+        }
+        markDirty();
+    }
+
+    /**
+     * Coalesced presence changes (already filtered to this subscription) from the presence
+     * thread; a null value means the player dropped off the list.
+     */
+    void onPresence(long version, Map<String, String> changes) {
+        presenceLock.lock();
+        try {
+            // already in the last full state, or a full state is coming anyway
+            if (playersReset || version <= presenceVersion) return;
+            changes.forEach((id, viewing) -> {
+                if (viewing == null) {
+                    playerUpserts.remove(id);
+                    playersLeft.add(id);
+                } else {
+                    playerUpserts.put(id, viewing);
+                    playersLeft.remove(id);
+                }
+            });
+            presenceVersion = version;
+        } finally {
+            presenceLock.unlock();
+        }
         markDirty();
     }
 }
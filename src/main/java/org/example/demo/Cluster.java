@@ -0,0 +1,580 @@
+package org.example.demo;
+
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Farms sharded over several server processes ({@code --cluster}, {@code --node}). A farm
+ * lives on the node its owner's id hashes to ({@link HashRing}); players log in there and
+ * are redirected if they knock on the wrong node. Nodes talk over a separate peer port in
+ * JSON lines:
+ * <ul>
+ *  <li>{@code watch}/{@code unwatch}: this node has viewers of a farm owned elsewhere. The
+ *  owner pushes the board ({@code farm}) now and after every change, coalesced, and this
+ *  node keeps it in a read-only replica {@link Farm}.</li>
+ *  <li>{@code steal}: forwarded to the victim's node with a transaction id. The owner
+ *  applies each txn once and remembers its outcome, so the thief's node can retry until
+ *  it gets an answer and then credits the thief exactly once. The thief's node then sends
+ *  {@code done}, and only then does the owner forget the txn. With {@code --data} both
+ *  sides log every step with the change it makes (the owner's plot, the thief's coins),
+ *  so a restart on either side neither applies nor credits a txn twice, and an open
+ *  steal is picked up again.</li>
+ *  <li>{@code presence}: logins and view changes, so every node's player list shows all.</li>
+ * </ul>
+ */
+final class Cluster {
+    /** One server process: clients connect to {@code port}, other nodes to {@code peerPort}. */
+    record Node(String host, int port, int peerPort) {
+        static Node parse(String s) {
+            String[] p = s.split(":");
+            if (p.length != 3) throw new IllegalArgumentException("Bad node (expected host:port:peerPort): " + s);
+            return new Node(p[0], Integer.parseInt(p[1]), Integer.parseInt(p[2]));
+        }
+
+        @Override public String toString() {
+            return STR."\{host}:\{port}:\{peerPort}";
+        }
+    }
+
+    /** One peer message; unused fields stay null/0. A reply carries the request's {@code rid} and no op. */
+    static final class Msg {
+        String op;
+        long rid;
+        String txn, thief, victim, farm, msg, id, viewing;
+        int row, col, amount;
+        long[] words;
+        List<String> txns;
+
+        static Msg of(String op) {
+            Msg m = new Msg();
+            m.op = op;
+            return m;
+        }
+    }
+
+    private static final Gson GSON = new Gson();
+    private static final int VNODES = 128;
+    private static final long CALL_TIMEOUT_MS = 2_000;
+
+    private final Server server;
+    private final List<Node> nodes;
+    private final int self;
+    private final HashRing ring;
+    private final PeerLink[] links;
+    private final List<PeerSession> sessions = new CopyOnWriteArrayList<>();
+    // farmId -> copy of a farm another node owns, while someone here is viewing it
+    private final Map<String, Farm> replicas = new ConcurrentHashMap<>();
+    // owner side: txn -> outcome, so a retried steal is applied only once; kept until the
+    // thief's node says it is done
+    private final Map<String, CompletableFuture<Server.Loot>> applied = new ConcurrentHashMap<>();
+    // thief side: steals sent but not answered yet; retried until the owner answers
+    private final Map<String, Msg> pending = new ConcurrentHashMap<>();
+    // thief side: answered steals the owner has not yet been told it can forget
+    private final Map<String, Msg> settled = new ConcurrentHashMap<>();
+    // where each step is logged; null without --data
+    private final FarmStore store;
+    // steps take the read lock from their log record to the map change that goes with it,
+    // and a snapshot's openTxns the write lock, so it never sees one without the other
+    private final ReentrantReadWriteLock ledger = new ReentrantReadWriteLock();
+    private final String txnPrefix;
+    private final AtomicLong txnSeq = new AtomicLong();
+    private final ScheduledExecutorService retry = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cluster-retry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** @param open steals still open when this node last stopped, from {@code store} */
+    Cluster(Server server, List<Node> nodes, int self, FarmStore store, FarmStore.OpenTxns open) {
+        this.server = server;
+        this.store = store;
+        this.nodes = nodes;
+        this.self = self;
+        this.ring = new HashRing(nodes.size(), VNODES);
+        this.links = new PeerLink[nodes.size()];
+        for (int n = 0; n < nodes.size(); n++) {
+            if (n != self) links[n] = new PeerLink(n);
+        }
+        // unique across restarts, so an old txn id is never mistaken for a new steal
+        this.txnPrefix = self + "-" + System.currentTimeMillis() + "-";
+        open.taken().forEach((txn, amount) -> applied.put(txn, CompletableFuture.completedFuture(new Server.Loot(amount, null))));
+        for (FarmStore.SentSteal sent : open.sent().values()) {
+            Msg m = Msg.of("steal");
+            m.txn = sent.txn();
+            m.thief = sent.thief();
+            m.victim = sent.victim();
+            m.row = sent.row();
+            m.col = sent.col();
+            (sent.settled() ? settled : pending).put(m.txn, m);
+        }
+        if (!applied.isEmpty() || !open.sent().isEmpty()) {
+            Log.info("[Cluster] resuming {} taken and {} sent steals", applied.size(), open.sent().size());
+        }
+    }
+
+    /** Listens for other nodes. */
+    void start() throws IOException {
+        ServerSocket ss = new ServerSocket(nodes.get(self).peerPort());
+        Thread accept = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket s = ss.accept();
+                    s.setTcpNoDelay(true);
+                    PeerSession session = new PeerSession(s);
+                    sessions.add(session);
+                    new Thread(session::run, "peer-in-" + s.getPort()).start();
+                } catch (IOException e) {
+                    Log.error("[Cluster] accept failed", e);
+                }
+            }
+        }, "peer-accept");
+        accept.setDaemon(true);
+        accept.start();
+        retry.scheduleWithFixedDelay(this::retryPending, 1, 1, TimeUnit.SECONDS);
+        Log.info("[Cluster] node {} of {}", self, nodes);
+    }
+
+    boolean owns(String id) {
+        return ring.owner(id) == self;
+    }
+
+    /** The node a player must log in to. */
+    Node home(String id) {
+        return nodes.get(ring.owner(id));
+    }
+
+    // ---- viewing farms owned elsewhere
+
+    /** A replica of a farm owned by another node; starts watching it if new. */
+    Farm replica(String farmId) {
+        return replicas.computeIfAbsent(farmId, id -> {
+            Msg m = Msg.of("watch");
+            m.farm = id;
+            links[ring.owner(id)].watch(id, m);
+            return new Farm(id, server.getConfig().getFarmSpec(),
+                    server.getConfig().getGrowth() == ServerConfig.Growth.LAZY, Farm.Journal.NONE);
+        });
+    }
+
+    /** Nobody here views {@code farmId} any more. */
+    void release(String farmId) {
+        if (replicas.remove(farmId) != null) {
+            Msg m = Msg.of("unwatch");
+            m.farm = farmId;
+            links[ring.owner(farmId)].unwatch(farmId, m);
+        }
+    }
+
+    /** Owner side: a local farm changed; send it to the nodes watching it. */
+    void changed(String farmId) {
+        for (PeerSession s : sessions) s.publish(farmId);
+    }
+
+    /** Owner side: is any other node showing this farm? */
+    boolean watched(String farmId) {
+        for (PeerSession s : sessions) {
+            if (s.watching.contains(farmId)) return true;
+        }
+        return false;
+    }
+
+    private void onFarm(Msg m) {
+        Farm replica = replicas.get(m.farm);
+        if (replica != null && m.words != null) {
+            replica.restoreBoard(m.words);
+            server.broadcastState(m.farm);
+        }
+    }
+
+    // ---- steals across nodes
+
+    /**
+     * How a forwarded steal went, like {@link Server.Loot} for a local one: {@code amount} is
+     * what the thief was credited, or negative with {@code ok} false and why not in {@code msg}.
+     * A steal the owner has not answered yet is {@code pending}, not ok: it is retried in the
+     * background and the thief is told how it went once it settles.
+     */
+    record Steal(boolean ok, int amount, String msg, boolean pending) {}
+
+    /**
+     * Thief side: asks the victim's node to take the crop, then credits the thief here.
+     * If no answer comes in time the steal is retried in the background with the same txn,
+     * and the thief is credited when it finally lands.
+     */
+    Steal steal(String thiefId, String victimId, int row, int col) {
+        Msg req = Msg.of("steal");
+        req.txn = txnPrefix + txnSeq.incrementAndGet();
+        req.thief = thiefId;
+        req.victim = victimId;
+        req.row = row;
+        req.col = col;
+        ledger.readLock().lock();
+        try {
+            // logged before it leaves, so a restart here keeps asking for it
+            pending.put(req.txn, req);
+            if (store != null) store.stealSent(new FarmStore.SentSteal(req.txn, thiefId, victimId, row, col, false));
+        } finally {
+            ledger.readLock().unlock();
+        }
+        Msg rsp = links[ring.owner(victimId)].call(req);
+        Steal steal = rsp == null ? null : settle(req, rsp);
+        if (steal == null) {
+            return new Steal(false, 0, "No answer from " + victimId + "'s shard yet; you will be told how the steal went", true);
+        }
+        return steal;
+    }
+
+    /**
+     * Credits the thief for the owner's answer, once per txn whoever gets it first.
+     * @return how it went, or null if another thread settled it
+     */
+    private Steal settle(Msg req, Msg rsp) {
+        ledger.readLock().lock();
+        try {
+            if (pending.remove(req.txn) == null) return null;
+            Steal steal = rsp.amount < 0
+                    ? new Steal(false, rsp.amount, rsp.msg, false)
+                    // the credit's log record carries the txn, so a restart never credits it again
+                    : new Steal(true, rsp.amount, server.credit(req.txn, req.thief, req.victim, req.row, req.col, rsp.amount), false);
+            settled.put(req.txn, req);
+            return steal;
+        } finally {
+            ledger.readLock().unlock();
+        }
+    }
+
+    /** Retry thread: re-sends unanswered steals, and tells owners which answered ones to forget. */
+    private void retryPending() {
+        for (Msg req : pending.values()) {
+            Msg rsp = links[ring.owner(req.victim)].call(req);
+            Steal steal = rsp == null ? null : settle(req, rsp);
+            if (steal != null) {
+                Log.info("[Cluster] steal {} settled late: {}", req.txn, steal.msg());
+                server.tell(req.thief, steal.ok() ? steal.msg() : "Steal from " + req.victim + " failed: " + steal.msg());
+            }
+        }
+        Map<Integer, List<String>> done = new HashMap<>();
+        for (Msg req : settled.values()) {
+            done.computeIfAbsent(ring.owner(req.victim), k -> new ArrayList<>()).add(req.txn);
+        }
+        done.forEach((node, txns) -> {
+            Msg m = Msg.of("done");
+            m.txns = txns;
+            if (links[node].call(m) == null) return; // asked again next round
+            ledger.readLock().lock();
+            try {
+                for (String txn : txns) {
+                    if (settled.remove(txn) != null && store != null) store.txnDone(txn);
+                }
+            } finally {
+                ledger.readLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Owner side: applies a forwarded steal once per txn. The first request for a txn claims
+     * it with putIfAbsent and takes the crop outside the map, so other txns never wait on it;
+     * a repeat waits for that outcome. The plot's log record carries the txn.
+     */
+    private Msg applySteal(Msg req) {
+        CompletableFuture<Server.Loot> mine = new CompletableFuture<>();
+        CompletableFuture<Server.Loot> prior;
+        ledger.readLock().lock();
+        try {
+            prior = applied.putIfAbsent(req.txn, mine);
+            if (prior == null) {
+                try {
+                    mine.complete(server.lootForPeer(req.victim, req.row, req.col, req.txn));
+                } catch (RuntimeException e) {
+                    // nothing was taken: the thief's retry starts over
+                    applied.remove(req.txn, mine);
+                    mine.completeExceptionally(e);
+                }
+            }
+        } finally {
+            ledger.readLock().unlock();
+        }
+        Msg rsp = new Msg();
+        try {
+            Server.Loot loot = (prior != null ? prior : mine).join();
+            rsp.amount = loot.amount();
+            rsp.msg = loot.error();
+        } catch (CompletionException e) {
+            rsp.amount = -1;
+            rsp.msg = "Steal failed: " + e.getCause().getMessage();
+        }
+        return rsp;
+    }
+
+    /** Owner side: the thief's node has settled these txns; their outcomes are no longer needed. */
+    private void forget(List<String> txns) {
+        ledger.readLock().lock();
+        try {
+            for (String txn : txns) {
+                if (applied.remove(txn) != null && store != null) store.txnDone(txn);
+            }
+        } finally {
+            ledger.readLock().unlock();
+        }
+    }
+
+    /** The steals still open on either side, for a snapshot. */
+    FarmStore.OpenTxns openTxns() {
+        ledger.writeLock().lock();
+        try {
+            FarmStore.OpenTxns open = FarmStore.OpenTxns.empty();
+            applied.forEach((txn, outcome) -> {
+                // only crops actually taken are durable; a refusal can simply be asked again
+                Server.Loot loot = outcome.getNow(null);
+                if (loot != null && loot.amount() >= 0) open.taken().put(txn, loot.amount());
+            });
+            pending.values().forEach(m -> open.sent().put(m.txn, new FarmStore.SentSteal(m.txn, m.thief, m.victim, m.row, m.col, false)));
+            settled.values().forEach(m -> open.sent().put(m.txn, new FarmStore.SentSteal(m.txn, m.thief, m.victim, m.row, m.col, true)));
+            return open;
+        } finally {
+            ledger.writeLock().unlock();
+        }
+    }
+
+    // ---- presence
+
+    /** A local login, logout or view change, for the player lists on the other nodes. */
+    void announce(String id, String viewing) {
+        Msg m = Msg.of("presence");
+        m.id = id;
+        m.viewing = viewing;
+        for (PeerLink link : links) {
+            if (link != null) link.send(m);
+        }
+    }
+
+    /**
+     * Our connection to another node. Requests, watches and announcements go out on one
+     * sender thread so callers never block on the network; the owner's replies and farm
+     * pushes come back on the same socket.
+     */
+    private final class PeerLink {
+        private final int node;
+        private final ExecutorService sender;
+        private final Map<Long, CompletableFuture<Msg>> calls = new ConcurrentHashMap<>();
+        private final AtomicLong rids = new AtomicLong();
+        // farms watched through this link; sent again after a reconnect
+        private final Map<String, Msg> watches = new ConcurrentHashMap<>();
+        private Socket socket; // sender thread only
+        private Writer out;
+
+        PeerLink(int node) {
+            this.node = node;
+            this.sender = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "peer-out-" + node);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        void send(Msg m) {
+            sender.execute(() -> write(m));
+        }
+
+        void watch(String farmId, Msg m) {
+            watches.put(farmId, m);
+            send(m);
+        }
+
+        void unwatch(String farmId, Msg m) {
+            watches.remove(farmId);
+            send(m);
+        }
+
+        /** @return the reply, or null if the node did not answer in time */
+        Msg call(Msg req) {
+            long rid = rids.incrementAndGet();
+            CompletableFuture<Msg> reply = new CompletableFuture<>();
+            calls.put(rid, reply);
+            try {
+                sender.execute(() -> {
+                    req.rid = rid;
+                    if (!write(req)) reply.complete(null);
+                });
+                return reply.get(CALL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException | TimeoutException e) {
+                return null;
+            } finally {
+                calls.remove(rid);
+            }
+        }
+
+        /** Sender thread. @return false if the node is unreachable */
+        private boolean write(Msg m) {
+            try {
+                if (socket == null && !open()) return false;
+                out.write(GSON.toJson(m));
+                out.write('\n');
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                Log.warn("[Cluster] lost node {}: {}", node, e.getMessage());
+                closeSocket();
+                return false;
+            }
+        }
+
+        private boolean open() {
+            Node n = nodes.get(node);
+            try {
+                Socket s = new Socket();
+                s.connect(new InetSocketAddress(n.host(), n.peerPort()), 1_000);
+                s.setTcpNoDelay(true);
+                socket = s;
+                out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+                Thread reader = new Thread(() -> read(s), "peer-read-" + node);
+                reader.setDaemon(true);
+                reader.start();
+                for (Msg w : watches.values()) {
+                    out.write(GSON.toJson(w));
+                    out.write('\n');
+                }
+                return true;
+            } catch (IOException e) {
+                closeSocket();
+                return false;
+            }
+        }
+
+        private void closeSocket() {
+            try {
+                if (socket != null) socket.close();
+            } catch (IOException ignore) {}
+            socket = null;
+            out = null;
+        }
+
+        private void read(Socket s) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    Msg m = GSON.fromJson(line, Msg.class);
+                    if (m.op == null) {
+                        CompletableFuture<Msg> reply = calls.get(m.rid);
+                        if (reply != null) reply.complete(m);
+                    } else if ("farm".equals(m.op)) {
+                        onFarm(m);
+                    }
+                }
+            } catch (IOException e) {
+                // the next write reconnects
+            } finally {
+                sender.execute(() -> { if (socket == s) closeSocket(); });
+            }
+        }
+    }
+
+    /**
+     * Another node's connection to us: answers its steals, records its presence updates
+     * and pushes the farms it watches. Pushes are coalesced: a farm that changes ten times
+     * before the writer gets to it is sent once, in its latest state.
+     */
+    private final class PeerSession {
+        private final Socket socket;
+        private final Set<String> watching = ConcurrentHashMap.newKeySet();
+        private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final ExecutorService writer;
+        private final Writer out;
+
+        PeerSession(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            this.writer = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "peer-push-" + socket.getPort());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        void run() {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    Msg m = GSON.fromJson(line, Msg.class);
+                    switch (m.op) {
+                        case "steal" -> {
+                            Msg rsp = applySteal(m);
+                            rsp.rid = m.rid;
+                            writer.execute(() -> write(rsp));
+                        }
+                        case "done" -> {
+                            forget(m.txns);
+                            Msg rsp = new Msg();
+                            rsp.rid = m.rid;
+                            writer.execute(() -> write(rsp));
+                        }
+                        case "watch" -> {
+                            watching.add(m.farm);
+                            publish(m.farm);
+                        }
+                        case "unwatch" -> watching.remove(m.farm);
+                        case "presence" -> server.presenceFromPeer(m.id, m.viewing);
+                        default -> Log.warn("[Cluster] unknown peer op {}", m.op);
+                    }
+                }
+            } catch (Exception e) {
+                Log.info("[Cluster] peer session closed: {}", e.getMessage());
+            } finally {
+                sessions.remove(this);
+                writer.shutdown();
+                try { socket.close(); } catch (IOException ignore) {}
+            }
+        }
+
+        void publish(String farmId) {
+            if (!watching.contains(farmId)) return;
+            dirty.add(farmId);
+            if (flushScheduled.compareAndSet(false, true)) {
+                writer.execute(this::flush);
+            }
+        }
+
+        private void flush() {
+            flushScheduled.set(false);
+            for (String farmId : dirty) {
+                dirty.remove(farmId);
+                Farm farm = server.getFarm(farmId);
+                if (farm == null) continue;
+                Msg m = Msg.of("farm");
+                m.farm = farmId;
+                m.words = new long[farm.getRows() * farm.getCols()];
+                for (int i = 0; i < m.words.length; i++) m.words[i] = farm.wordAt(i);
+                write(m);
+            }
+        }
+
+        private void write(Msg m) {
+            try {
+                out.write(GSON.toJson(m));
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                try { socket.close(); } catch (IOException ignore) {}
+            }
+        }
+    }
+}
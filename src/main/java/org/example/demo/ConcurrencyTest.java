@@ -3,6 +3,7 @@ package org.example.demo;
 import com.google.gson.Gson;
 import java.io.*;
 import java.net.Socket;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
@@ -125,14 +126,24 @@ public class ConcurrencyTest {
 
     static class SimpleClient {
         String name;
+        final String host;
+        final int port;
         Socket socket;
         BufferedReader in;
         PrintWriter out;
+        // the state message answering the login
+        Map<?,?> welcome;
 
-        SimpleClient(String name) { this.name = name; }
+        SimpleClient(String name) { this(name, "localhost", PORT); }
+
+        SimpleClient(String name, String host, int port) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+        }
 
         void connect() throws IOException {
-            socket = new Socket("localhost", PORT);
+            socket = new Socket(host, port);
             in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
             out = new PrintWriter(socket.getOutputStream(), true);
         }
@@ -148,11 +159,20 @@ public class ConcurrencyTest {
         }
 
         String login(String id) throws IOException {
-            send(Map.of("op", "login", "id", id == null ? "" : id));
+            return login(id, Map.of());
+        }
+
+        /** Logs in with extra handshake fields, e.g. {@code "delta"} or {@code "players"}. */
+        String login(String id, Map<String, Object> options) throws IOException {
+            Map<String, Object> req = new HashMap<>(options);
+            req.put("op", "login");
+            req.put("id", id == null ? "" : id);
+            send(req);
             // Read welcome/state
             String line = in.readLine();
-            Map<?,?> msg = GSON.fromJson(line, Map.class);
-            return String.valueOf(msg.get("clientId"));
+            if (line == null) throw new EOFException("closed during login");
+            welcome = GSON.fromJson(line, Map.class);
+            return String.valueOf(welcome.get("clientId"));
         }
 
         void send(Map<String, Object> data) {
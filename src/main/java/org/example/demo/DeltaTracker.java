@@ -0,0 +1,104 @@
+package org.example.demo;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers what one connection was last sent so pushes can carry only what changed.
+ * Every push gets the next sequence number; a full state is forced when the viewed farm
+ * changes, on request, and every {@link #FULL_EVERY} pushes so a client can never drift.
+ * When the new frame was made from the one last sent, only the plots it lists as changed
+ * are compared, so a patch costs what changed rather than the size of the board.
+ * Not thread-safe: used under the owning {@link ClientHandler}'s write lock.
+ */
+final class DeltaTracker {
+    static final int FULL_EVERY = 64;
+
+    private long seq;
+    private String farmId;
+    private byte[] board = new byte[0];
+    private long frameSerial = -1; // the FarmFrame {@code board} was last brought up to
+    private int coins;
+    private String msg;
+    private int sinceFull;
+    private boolean resync = true;
+
+    // result of the last diff(), valid until the next call
+    private int[] changed = new int[16];
+    private int changedCount;
+    private boolean coinsChanged;
+    private boolean msgChanged;
+    private Map<String, String> upserts = Map.of();
+    private Collection<String> removed = List.of();
+
+    void requestResync() {
+        resync = true;
+    }
+
+    boolean needsFull(FarmFrame view) {
+        return resync || sinceFull >= FULL_EVERY || !view.farmId().equals(farmId) || view.board().length != board.length;
+    }
+
+    /** Records a full state about to be sent. @return its sequence number */
+    long markFull(FarmFrame view, int coins, String msg) {
+        this.farmId = view.farmId();
+        this.board = view.board().clone();
+        this.frameSerial = view.serial();
+        this.coins = coins;
+        this.msg = msg;
+        sinceFull = 0;
+        resync = false;
+        return ++seq;
+    }
+
+    /**
+     * Compares against the last sent state and records the new one. Player-list changes
+     * are not diffed here: the caller passes what the presence registry delivered since
+     * the last push, and must keep both collections unchanged until the patch is encoded.
+     * @return the sequence number of the patch, or -1 if nothing changed
+     */
+    long diff(FarmFrame view, int coins, String msg,
+              Map<String, String> playerUpserts, Collection<String> playersRemoved) {
+        changedCount = 0;
+        byte[] board = view.board();
+        if (view.serial() == frameSerial) {
+            // same frame as last time: the board did not change
+        } else if (view.baseSerial() == frameSerial) {
+            for (int i : view.changed()) compare(board, i);
+        } else {
+            for (int i = 0; i < board.length; i++) compare(board, i);
+        }
+        frameSerial = view.serial();
+        coinsChanged = coins != this.coins;
+        this.coins = coins;
+        // msg strings are built fresh for every action, so identity also catches a repeated message
+        msgChanged = msg != this.msg;
+        this.msg = msg;
+
+        upserts = playerUpserts;
+        removed = playersRemoved;
+
+        if (changedCount == 0 && !coinsChanged && !msgChanged && upserts.isEmpty() && removed.isEmpty()) {
+            return -1;
+        }
+        sinceFull++;
+        return ++seq;
+    }
+
+    private void compare(byte[] board, int i) {
+        if (board[i] == this.board[i]) return;
+        if (changedCount == changed.length) changed = Arrays.copyOf(changed, changed.length * 2);
+        changed[changedCount++] = i;
+        this.board[i] = board[i];
+    }
+
+    int changedCount() { return changedCount; }
+    /** Board index of the k-th changed plot. */
+    int changedPlot(int k) { return changed[k]; }
+    boolean coinsChanged() { return coinsChanged; }
+    boolean msgChanged() { return msgChanged; }
+    Map<String, String> playerUpserts() { return upserts; }
+    Collection<String> playersRemoved() { return removed; }
+}
@@ -1,137 +1,386 @@
 package org.example.demo;
 
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Minimal game logic to demonstrate multithreading and synchronization.
+ * Lock-free: the board is an array of {@link PlotWord}s (row-major, on the heap or off it,
+ * see {@link Cells}) and every plot transition is a compare-and-set on its word, so a steal storm on one plot
+ * never blocks plants, harvests or snapshots elsewhere on the farm.
+ * Size, crops and prices come from a {@link FarmSpec}; each planted word carries its crop id.
  */
 public class Farm {
-    private static final int ROWS = 4;
-    private static final int COLS = 4;
-    private static final int PLANT_COST = 5;
-    private static final int HARVEST_REWARD = 12;
-    private static final int STEAL_REWARD = 3; // 25%
-    private static final long GROW_MS = 10_000;
-
-    private final PlotState[][] board = new PlotState[ROWS][COLS];
-    private final long[][] plantedAt = new long[ROWS][COLS];
-    private final int[][] plotYield = new int[ROWS][COLS];
-    private final Random random = new Random();
+    /** Told about every change after it happened, e.g. to append it to a log. */
+    interface Journal {
+        Journal NONE = new Journal() {
+            @Override public void farmCreated(Farm farm) {}
+            @Override public void plotChanged(Farm farm, int index) {}
+            @Override public void coinsChanged(Farm farm) {}
+        };
+
+        void farmCreated(Farm farm);
+        void plotChanged(Farm farm, int index);
+        void coinsChanged(Farm farm);
+
+        /** A steal of {@code amount} for another node's transaction {@code txn}, logged in one record with the plot. */
+        default void stolenForPeer(Farm farm, int index, String txn, int amount) {
+            plotChanged(farm, index);
+        }
+
+        /** Coins credited for this node's cross-node steal {@code txn}, logged in one record with the balance. */
+        default void creditedForPeer(Farm farm, String txn) {
+            coinsChanged(farm);
+        }
+    }
+
+    /**
+     * Where a farm's plot words, coins and version live: heap atomics by default, or a
+     * record in {@link MappedFarms}. All updates are compare-and-set or atomic adds.
+     */
+    interface Cells {
+        long plot(int index);
+        boolean casPlot(int index, long expect, long update);
+        void setPlot(int index, long word);
+        int coins();
+        boolean casCoins(int expect, int update);
+        void addCoins(int amount);
+        void setCoins(int amount);
+        long version();
+        /** @return the new version */
+        long bumpVersion();
+    }
+
+    private static final class HeapCells implements Cells {
+        private final AtomicLongArray plots;
+        private final AtomicInteger coins;
+        private final AtomicLong version = new AtomicLong();
+
+        HeapCells(FarmSpec spec) {
+            plots = new AtomicLongArray(spec.plots());
+            coins = new AtomicInteger(spec.startCoins());
+        }
+
+        @Override public long plot(int index) { return plots.get(index); }
+        @Override public boolean casPlot(int index, long expect, long update) { return plots.compareAndSet(index, expect, update); }
+        @Override public void setPlot(int index, long word) { plots.set(index, word); }
+        @Override public int coins() { return coins.get(); }
+        @Override public boolean casCoins(int expect, int update) { return coins.compareAndSet(expect, update); }
+        @Override public void addCoins(int amount) { coins.addAndGet(amount); }
+        @Override public void setCoins(int amount) { coins.set(amount); }
+        @Override public long version() { return version.get(); }
+        @Override public long bumpVersion() { return version.incrementAndGet(); }
+    }
+
+    // how many recent plot changes a farm remembers, see changedSince
+    static final int CHANGES = 64;
+
+    private final FarmSpec spec;
+    private final int rows;
+    private final int cols;
+    // plot words, coins, and a version bumped after every plot change so encoded copies
+    // of the board know when they are stale
+    private final Cells cells;
+    // 最近的改动: slot v % CHANGES holds (v << 16) | index of the plot that change v touched,
+    // so a copy of the board can catch up by re-reading only those plots. Made by the first
+    // changedSince, so farms nobody views carry none; boards of at most CHANGES plots never
+    // get one, since reading them whole costs no more
+    private volatile AtomicLongArray changes;
     private final String id;
-    private int coins = 40;
+    // lazy: GROWING plots are reported RIPE once their time is up, without a ticker writing it
+    private final boolean lazyGrowth;
+    private final Journal journal;
     public Farm(String id) {
+        this(id, false);
+    }
+    public Farm(String id, boolean lazyGrowth) {
+        this(id, FarmSpec.DEFAULT, lazyGrowth, Journal.NONE);
+    }
+    Farm(String id, FarmSpec spec, boolean lazyGrowth, Journal journal) {
+        this(id, spec, lazyGrowth, journal, new HeapCells(spec));
+    }
+    Farm(String id, FarmSpec spec, boolean lazyGrowth, Journal journal, Cells cells) {
         this.id = id;
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLS; j++) {
-                board[i][j] = PlotState.EMPTY;
-                plotYield[i][j] = 0;
-            }
-        }
+        this.spec = spec;
+        this.rows = spec.rows();
+        this.cols = spec.cols();
+        this.lazyGrowth = lazyGrowth;
+        this.journal = journal;
+        this.cells = cells;
+    }
+    public int getCoins() {
+        return cells.coins();
     }
-    public synchronized int getCoins() {
-        return coins;
+    public void addCoins(int amount) {
+        addCoins(amount, null);
+    }
+    /** @param peerTxn the cross-node steal these coins settle, or null */
+    void addCoins(int amount, String peerTxn) {
+        cells.addCoins(amount);
+        if (peerTxn == null) {
+            journal.coinsChanged(this);
+        } else {
+            journal.creditedForPeer(this, peerTxn);
+        }
     }
-    public synchronized void addCoins(int amount) {
-        this.coins += amount;
+    public PlotState getState(int row, int col) {
+        return stateOf(cells.plot(row * cols + col), System.currentTimeMillis());
     }
-    public synchronized PlotState getState(int row, int col) {
-        return board[row][col];
+    /** Plants the spec's first crop. @return the time (epoch millis) at which it ripens */
+    public long plant(int row, int col) {
+        return plant(row, col, 0);
     }
-    public synchronized void plant(int row, int col) {
+    /** @return the time (epoch millis) at which the new crop ripens */
+    public long plant(int row, int col, int cropId) {
         if (!checkInBounds(row,col)) {
             throw new IllegalStateException("Out of bound");
         }
-        if (board[row][col] != PlotState.EMPTY) {
+        FarmSpec.Crop crop = spec.crop(cropId);
+        int i = row * cols + col;
+        if (cells.plot(i) != PlotWord.EMPTY) {
             throw new IllegalStateException("Plot occupied");
         }
-        if (coins < PLANT_COST) {
-            throw new IllegalStateException("Not enough coins");
+        // take the cost first so it is deducted exactly once; refunded if we lose the plot
+        int c;
+        do {
+            c = cells.coins();
+            if (c < crop.cost()) {
+                throw new IllegalStateException("Not enough coins");
+            }
+        } while (!cells.casCoins(c, c - crop.cost()));
+
+        long word = PlotWord.pack(PlotState.GROWING, cropId, crop.yield(), System.currentTimeMillis());
+        if (!cells.casPlot(i, PlotWord.EMPTY, word)) {
+            cells.addCoins(crop.cost());
+            throw new IllegalStateException("Plot occupied");
         }
-        coins -= PLANT_COST;
-        plantedAt[row][col] = System.currentTimeMillis();
-        board[row][col] = PlotState.GROWING;
-        plotYield[row][col] = HARVEST_REWARD;
+        changed(i);
+        journal.plotChanged(this, i);
+        journal.coinsChanged(this);
+        return PlotWord.plantedAt(word) + crop.growMs();
     }
 
-    public synchronized void harvest(int row, int col) {
+    public void harvest(int row, int col) {
         if (!checkInBounds(row,col)) {
             throw new IllegalStateException("Out of bound");
         }
-        if (board[row][col] != PlotState.RIPE) {
-            throw new IllegalStateException("Crop not ripe");
-        }
-        board[row][col] = PlotState.EMPTY;
-        int yield = plotYield[row][col];
-        plotYield[row][col] = 0;
-        
-        coins += yield;
+        int i = row * cols + col;
+        long word;
+        do {
+            word = cells.plot(i);
+            if (stateOf(word, System.currentTimeMillis()) != PlotState.RIPE) {
+                throw new IllegalStateException("Crop not ripe");
+            }
+        } while (!cells.casPlot(i, word, PlotWord.EMPTY));
+        changed(i);
+        // only the thread whose CAS emptied the plot gets here, so the yield is paid once
+        cells.addCoins(PlotWord.yield(word));
+        journal.plotChanged(this, i);
+        journal.coinsChanged(this);
+    }
+
+    /**
+     * Whether a steal could succeed right now, without changing anything: 0 if so, else the
+     * code {@link #steal} would return. Lets thieves give up before queueing for a transaction.
+     */
+    public int canSteal(int row, int col) {
+        if (!checkInBounds(row, col)) return -1;
+        long word = cells.plot(row * cols + col);
+        if (stateOf(word, System.currentTimeMillis()) != PlotState.RIPE) return -2;
+        FarmSpec.Crop crop = spec.crop(PlotWord.crop(word));
+        return PlotWord.yield(word) < crop.yield() * crop.stealFloor() ? -3 : 0;
     }
 
-    public synchronized int steal(int row, int col) {
-        System.out.println(Thread.currentThread().getName() + " [Server-Lock] Start processing steal request at (" + row + "," + col + ")");
+    public int steal(int row, int col) {
+        return steal(row, col, null);
+    }
+    /** @param peerTxn the other node's transaction this steal is for, or null */
+    int steal(int row, int col, String peerTxn) {
         if (!checkInBounds(row,col)) return -1;
-        
-        // Must be RIPE
-        if (board[row][col] != PlotState.RIPE) {
-            System.out.println(Thread.currentThread().getName() + " [Server-Lock] Failed: Crop not ripe");
-            return -2; 
-        }
+        int i = row * cols + col;
 
-        int currentYield = plotYield[row][col];
-        // Stealable period is yield in 20% to 100%
-        double minYield = HARVEST_REWARD * 0.20;
-        
-        if (currentYield < minYield) {
-            System.out.println(Thread.currentThread().getName() + " [Server-Lock] Failed: Yield too low (" + currentYield + " < " + minYield + ")");
-            return -3;
-        }
+        while (true) {
+            long word = cells.plot(i);
+            // Must be RIPE
+            if (stateOf(word, System.currentTimeMillis()) != PlotState.RIPE) {
+                Log.event(Log.Level.DEBUG, "steal", "farm", id, "row", row, "col", col, "result", "not-ripe");
+                return -2;
+            }
 
-        // Steal 0% to 25% of current yield
-        int maxAmount = (int) (currentYield * 0.25);
+            int currentYield = PlotWord.yield(word);
+            FarmSpec.Crop crop = spec.crop(PlotWord.crop(word));
+            // Stealable period is yield in stealFloor (default 20%) to 100%
+            double minYield = crop.yield() * crop.stealFloor();
 
-        int amount = random.nextInt(maxAmount + 1);
-        
-        plotYield[row][col] -= amount;
-        System.out.println(Thread.currentThread().getName() + " [Server-Lock] Success: Stole " + amount + ". Yield reduced from " + currentYield + " to " + plotYield[row][col]);
-        return amount;
-    }
+            if (currentYield < minYield) {
+                Log.event(Log.Level.DEBUG, "steal", "farm", id, "row", row, "col", col, "result", "yield-too-low", "yield", currentYield);
+                return -3;
+            }
 
-    public synchronized boolean tickGrow() {
-        long now = System.currentTimeMillis();
-        boolean changed = false;
-        for (int i = 0; i < ROWS; i++) {
-            for (int j = 0; j < COLS; j++) {
-                if (board[i][j] == PlotState.GROWING) {
-                    if (now - plantedAt[i][j] >= GROW_MS) {
-                        board[i][j] = PlotState.RIPE;
-                        plantedAt[i][j] = 0L;
-                        changed = true;
-                    }
+            // Steal 0% to stealShare (default 25%) of current yield
+            int maxAmount = (int) (currentYield * crop.stealShare());
+
+            int amount = ThreadLocalRandom.current().nextInt(maxAmount + 1);
+
+            // a concurrent steal or harvest changed the word: re-check against the new yield
+            if (cells.casPlot(i, word, PlotWord.withYield(word, currentYield - amount))) {
+                changed(i);
+                if (peerTxn == null) {
+                    journal.plotChanged(this, i);
+                } else {
+                    journal.stolenForPeer(this, i, peerTxn, amount);
                 }
+                Log.event(Log.Level.DEBUG, "steal", "farm", id, "row", row, "col", col, "result", "ok", "amount", amount, "yield", currentYield - amount);
+                return amount;
             }
         }
-        return changed;
+    }
+
+    /**
+     * Turns a plot RIPE once its grow time is over. Called by the server's ripening wheel
+     * with the deadline {@link #plant} returned; stale entries are ignored. Not needed
+     * for lazy-growth farms, whose plots ripen on read.
+     * @return true if the plot changed
+     */
+    public boolean ripen(int row, int col, long deadline) {
+        int i = row * cols + col;
+        long word;
+        do {
+            word = cells.plot(i);
+            if (PlotWord.state(word) != PlotState.GROWING || ripeAt(word) != deadline) {
+                return false;
+            }
+        } while (!cells.casPlot(i, word, PlotWord.withState(word, PlotState.RIPE)));
+        changed(i);
+        journal.plotChanged(this, i);
+        return true;
+    }
+
+    /** @return when the crop on this plot ripens, or -1 if nothing is growing there */
+    public long ripeAt(int row, int col) {
+        long word = cells.plot(row * cols + col);
+        return PlotWord.state(word) == PlotState.GROWING ? ripeAt(word) : -1;
+    }
+
+    private long ripeAt(long word) {
+        return PlotWord.plantedAt(word) + spec.crop(PlotWord.crop(word)).growMs();
+    }
+
+    /** After a plot's word changed: bumps the version and remembers which plot it was. */
+    private void changed(int index) {
+        long v = cells.bumpVersion();
+        AtomicLongArray ring = changes;
+        if (ring != null) ring.set((int) (v % CHANGES), v << 16 | index);
+    }
+
+    /**
+     * The plots changed between versions {@code from} (exclusive) and {@code to} (inclusive),
+     * one entry per change, into {@code into} (at least {@link #CHANGES} long).
+     * @return how many, or -1 if the farm does not remember them all (too many changes, a
+     * change still being recorded, a board restored in one go, a small board or the first
+     * call) and the whole board must be read
+     */
+    int changedSince(long from, long to, int[] into) {
+        AtomicLongArray ring = changes;
+        if (ring == null) {
+            // changes made before the ring exists are simply missing from it: the slot check fails
+            if (rows * cols > CHANGES) changes = new AtomicLongArray(CHANGES);
+            return -1;
+        }
+        if (to < from || to - from > CHANGES) return -1;
+        int n = 0;
+        for (long v = from + 1; v <= to; v++) {
+            long slot = ring.get((int) (v % CHANGES));
+            if (slot >>> 16 != v) return -1;
+            into[n++] = (int) (slot & 0xFFFF);
+        }
+        return n;
+    }
+
+    /** Raw plot word, for the store. */
+    long wordAt(int index) {
+        return cells.plot(index);
+    }
+
+    /** Recovery only: sets state without journaling it. */
+    void restoreWord(int index, long word) {
+        cells.setPlot(index, word);
+    }
+
+    /** Replicas of farms owned by another node: takes the owner's board and bumps the version. */
+    void restoreBoard(long[] words) {
+        for (int i = 0; i < words.length && i < rows * cols; i++) cells.setPlot(i, words[i]);
+        cells.bumpVersion();
+    }
+
+    /** Recovery only: sets coins without journaling them. */
+    void restoreCoins(int amount) {
+        cells.setCoins(amount);
     }
 
     public int getRows() {
-        return ROWS;
+        return rows;
     }
 
     public int getCols() {
-        return COLS;
+        return cols;
+    }
+    FarmSpec getSpec() {
+        return spec;
     }
     public String getId() {
         return id;
     }
-    public synchronized PlotState[][] snapshot() {
-        PlotState[][] copy = new PlotState[ROWS][COLS];
-        for (int i = 0; i < ROWS; i++)
-            System.arraycopy(board[i], 0, copy[i], 0, COLS);
+    public boolean isLazyGrowth() {
+        return lazyGrowth;
+    }
+    /** Counts plot changes; coins are not included. Read it before a snapshot to tag the copy. */
+    public long getVersion() {
+        return cells.version();
+    }
+    public PlotState[][] snapshot() {
+        PlotState[] states = PlotState.values();
+        byte[] flat = new byte[rows * cols];
+        snapshotInto(flat);
+        PlotState[][] copy = new PlotState[rows][cols];
+        for (int i = 0; i < rows; i++)
+            for (int j = 0; j < cols; j++)
+                copy[i][j] = states[flat[i * cols + j]];
         return copy;
     }
+    /**
+     * Copies the plot state ordinals, row-major, into {@code dst} (at least rows*cols long)
+     * without allocating. Each plot is read atomically, the board as a whole is not.
+     * @return when the copy goes stale without a write (a lazy plot ripening), else Long.MAX_VALUE
+     */
+    public long snapshotInto(byte[] dst) {
+        long now = System.currentTimeMillis();
+        long staleAt = Long.MAX_VALUE;
+        for (int i = 0; i < rows * cols; i++) {
+            staleAt = Math.min(staleAt, snapshotPlot(i, dst, now));
+        }
+        return staleAt;
+    }
+    /** Like {@link #snapshotInto}, for the one plot {@code index}. */
+    long snapshotPlot(int index, byte[] dst, long now) {
+        long word = cells.plot(index);
+        PlotState s = stateOf(word, now);
+        dst[index] = (byte) s.ordinal();
+        return lazyGrowth && s == PlotState.GROWING ? ripeAt(word) : Long.MAX_VALUE;
+    }
+    /** Effective state of a plot word. */
+    private PlotState stateOf(long word, long now) {
+        PlotState s = PlotWord.state(word);
+        if (lazyGrowth && s == PlotState.GROWING && now >= ripeAt(word)) {
+            return PlotState.RIPE;
+        }
+        return s;
+    }
     private boolean checkInBounds(int r, int c) {
-        if (r < 0 || r >= ROWS || c < 0 || c >= COLS) return false;
+        if (r < 0 || r >= rows || c < 0 || c >= cols) return false;
         else return true;
     }
 }
\ No newline at end of file
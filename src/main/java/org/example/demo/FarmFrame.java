@@ -0,0 +1,133 @@
+package org.example.demo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One farm's board, encoded once per change and shared by every connection viewing it.
+ * Holds the plot states, a complete binary FARM frame and the JSON text of the
+ * {@code "board"} value; connections add only their own small section (clientId, coins,
+ * msg, players) around it. Immutable; the buffers handed out are read-only views.
+ * <p>
+ * A new frame is made from the one before it: only the plots the farm reports changed
+ * since are re-read, and the frame remembers which they were ({@link #changed}), so a
+ * push of a few changes to a large board costs one array copy and a few plot reads, not a
+ * read of every plot. The full encodings are only built when a connection needs a full state.
+ */
+final class FarmFrame {
+    private static final PlotState[] STATES = PlotState.values();
+    private static final AtomicLong SERIALS = new AtomicLong();
+    private static final int[] NONE = new int[0];
+
+    private final String farmId;
+    private final long serial;
+    private final long baseSerial;
+    private final int[] changed;
+    private final long version;
+    private final long staleAt;
+    private final int rows;
+    private final int cols;
+    private final byte[] board;
+    // built on first use; a racing second build makes an equal copy, so no lock
+    private volatile ByteBuffer binary;
+    private volatile ByteBuffer json;
+
+    private FarmFrame(String farmId, long baseSerial, int[] changed, long version, long staleAt,
+                      int rows, int cols, byte[] board) {
+        this.farmId = farmId;
+        this.serial = SERIALS.incrementAndGet();
+        this.baseSerial = baseSerial;
+        this.changed = changed;
+        this.version = version;
+        this.staleAt = staleAt;
+        this.rows = rows;
+        this.cols = cols;
+        this.board = board;
+    }
+
+    static FarmFrame encode(Farm farm) {
+        return encode(farm, null);
+    }
+
+    /** @param prev the farm's previous frame, or null */
+    static FarmFrame encode(Farm farm, FarmFrame prev) {
+        long version = farm.getVersion(); // before the snapshot: a racing change makes this copy stale, never lost
+        long now = System.currentTimeMillis();
+        int rows = farm.getRows(), cols = farm.getCols();
+        boolean related = prev != null && prev.farmId.equals(farm.getId()) && prev.rows == rows && prev.cols == cols;
+        if (related && now < prev.staleAt) {
+            int[] plots = new int[Farm.CHANGES];
+            int n = farm.changedSince(prev.version, version, plots);
+            if (n >= 0) {
+                byte[] board = prev.board.clone();
+                long staleAt = prev.staleAt; // may be early if that plot changed since: rebuilds sooner, never later
+                for (int k = 0; k < n; k++) staleAt = Math.min(staleAt, farm.snapshotPlot(plots[k], board, now));
+                return new FarmFrame(farm.getId(), prev.serial, Arrays.copyOf(plots, n), version, staleAt, rows, cols, board);
+            }
+        }
+        byte[] board = new byte[rows * cols];
+        long staleAt = farm.snapshotInto(board);
+        if (!related) {
+            return new FarmFrame(farm.getId(), -1, NONE, version, staleAt, rows, cols, board);
+        }
+        int n = 0;
+        int[] plots = new int[16];
+        for (int i = 0; i < board.length; i++) {
+            if (board[i] == prev.board[i]) continue;
+            if (n == plots.length) plots = Arrays.copyOf(plots, n * 2);
+            plots[n++] = i;
+        }
+        return new FarmFrame(farm.getId(), prev.serial, Arrays.copyOf(plots, n), version, staleAt, rows, cols, board);
+    }
+
+    /** True while the farm is still at {@code version} and no lazy plot has ripened since. */
+    boolean isCurrent(long version, long now) {
+        return this.version == version && now < staleAt;
+    }
+
+    String farmId() { return farmId; }
+    int rows() { return rows; }
+    int cols() { return cols; }
+    /** Plot state ordinals, row-major. Shared: read only. */
+    byte[] board() { return board; }
+    /** Unique per frame, across farms. */
+    long serial() { return serial; }
+    /** The serial of the frame this one was made from, or -1. */
+    long baseSerial() { return baseSerial; }
+    /** Indexes of the plots that may differ from the base frame; every other plot is the same. Read only. */
+    int[] changed() { return changed; }
+
+    /** The complete binary FARM frame. */
+    ByteBuffer binary() {
+        ByteBuffer b = binary;
+        if (b == null) {
+            BinaryCodec.Frame f = new BinaryCodec.Frame();
+            BinaryCodec.encodeFarm(f, farmId, version, rows, cols, board);
+            binary = b = ByteBuffer.wrap(Arrays.copyOf(f.array(), f.size())).asReadOnlyBuffer();
+        }
+        return b.duplicate();
+    }
+
+    /** JSON text of the board value, e.g. {@code [["EMPTY","RIPE"],...]}. */
+    ByteBuffer json() {
+        ByteBuffer j = json;
+        if (j == null) {
+            StringBuilder sb = new StringBuilder(rows * cols * 10);
+            sb.append('[');
+            for (int r = 0; r < rows; r++) {
+                if (r > 0) sb.append(',');
+                sb.append('[');
+                for (int c = 0; c < cols; c++) {
+                    if (c > 0) sb.append(',');
+                    sb.append('"').append(STATES[board[r * cols + c]].name()).append('"');
+                }
+                sb.append(']');
+            }
+            sb.append(']');
+            json = j = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+        }
+        return j.duplicate();
+    }
+}
@@ -0,0 +1,63 @@
+package org.example.demo;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Actor mode ({@code --farm-loops=N}): every farm belongs to one of N single-thread event
+ * loops, chosen by hashing its id, and plants, harvests, steals and ripening run as
+ * messages on that loop in arrival order. A farm therefore has exactly one writer and its
+ * compare-and-sets never contend. Reads for pushes stay lock-free from any thread.
+ * <p>
+ * A hot farm only delays the farms that share its loop; the rest keep their own latency.
+ * Callers wait for replies from connection threads, never from a loop, so loops cannot
+ * deadlock on each other.
+ */
+final class FarmLoops {
+    private final ExecutorService[] loops;
+
+    FarmLoops(int n) {
+        loops = new ExecutorService[n];
+        for (int i = 0; i < n; i++) {
+            String name = "farm-loop-" + i;
+            loops[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private ExecutorService loopOf(String farmId) {
+        return loops[(int) Math.floorMod(HashRing.hash(farmId), (long) loops.length)];
+    }
+
+    /** Runs {@code action} on the farm's loop; the future completes with its result or exception. */
+    <T> CompletableFuture<T> ask(String farmId, Supplier<T> action) {
+        return CompletableFuture.supplyAsync(action, loopOf(farmId));
+    }
+
+    /** Runs {@code action} on the farm's loop without waiting. */
+    void tell(String farmId, Runnable action) {
+        loopOf(farmId).execute(() -> {
+            try {
+                action.run();
+            } catch (Throwable t) {
+                Log.error("[FarmLoops] action failed", t);
+            }
+        });
+    }
+
+    /** Waits for a reply and rethrows the farm's own exception, e.g. "Crop not ripe". */
+    static <T> T await(CompletableFuture<T> reply) {
+        try {
+            return reply.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.example.demo;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Board size, starting coins and crop catalog shared by every farm on a server, read from
+ * {@code --farm-config=FILE}; without it farms are 4x4 with one crop. For example:
+ * <pre>
+ * {"rows": 16, "cols": 16, "startCoins": 100,
+ *  "crops": [
+ *    {"name": "wheat",   "growMs": 10000, "cost": 5,  "yield": 12},
+ *    {"name": "pumpkin", "growMs": 60000, "cost": 20, "yield": 60, "stealFloor": 0.5, "stealShare": 0.1}]}
+ * </pre>
+ * A crop's id is its position in the list and is kept in the plot word, so a catalog may
+ * grow at the end but must not be reordered while saved farms use it. The first crop is
+ * the one planted when a request names none. A plot can be stolen from while its yield is
+ * at least {@code stealFloor} of the crop's full yield, and a steal takes up to
+ * {@code stealShare} of what is left. Every node of a cluster must use the same file.
+ */
+final class FarmSpec {
+    static final int MAX_SIDE = 64;
+    static final int MAX_CROPS = 64; // ids fit in PlotWord bits 2..7
+    private static final Gson GSON = new Gson();
+
+    /** One kind of crop; {@code yield} is what a harvest pays if nobody stole from it. */
+    record Crop(int id, String name, long growMs, int cost, int yield, double stealFloor, double stealShare) {}
+
+    static final FarmSpec DEFAULT = new FarmSpec(4, 4, 40, List.of(new Crop(0, "wheat", 10_000, 5, 12, 0.20, 0.25)));
+
+    private final int rows;
+    private final int cols;
+    private final int startCoins;
+    private final Crop[] crops;
+    private final Map<String, Crop> byName = new HashMap<>();
+    private final ByteBuffer binary;
+
+    FarmSpec(int rows, int cols, int startCoins, List<Crop> crops) {
+        if (rows < 1 || rows > MAX_SIDE || cols < 1 || cols > MAX_SIDE) {
+            throw new IllegalArgumentException(STR."Farm size must be 1..\{MAX_SIDE} x 1..\{MAX_SIDE}");
+        }
+        if (crops.isEmpty() || crops.size() > MAX_CROPS) {
+            throw new IllegalArgumentException(STR."Need 1..\{MAX_CROPS} crops");
+        }
+        if (startCoins < 0) throw new IllegalArgumentException("startCoins must be >= 0");
+        this.rows = rows;
+        this.cols = cols;
+        this.startCoins = startCoins;
+        this.crops = crops.toArray(Crop[]::new);
+        for (Crop c : this.crops) {
+            if (c.growMs() <= 0 || c.cost() < 0 || c.yield() < 1 || c.yield() > 0xFFFF
+                    || c.stealFloor() < 0 || c.stealFloor() > 1 || c.stealShare() < 0 || c.stealShare() > 1) {
+                throw new IllegalArgumentException("Bad crop " + c);
+            }
+            if (byName.put(c.name(), c) != null) throw new IllegalArgumentException("Duplicate crop " + c.name());
+        }
+        BinaryCodec.Frame f = new BinaryCodec.Frame();
+        BinaryCodec.encodeSpec(f, this);
+        this.binary = ByteBuffer.wrap(Arrays.copyOf(f.array(), f.size())).asReadOnlyBuffer();
+    }
+
+    static FarmSpec load(Path file) throws IOException {
+        try (Reader in = Files.newBufferedReader(file)) {
+            Map<?, ?> json = GSON.fromJson(in, Map.class);
+            List<Crop> crops = new ArrayList<>();
+            for (Object o : (List<?>) json.get("crops")) {
+                Map<?, ?> c = (Map<?, ?>) o;
+                crops.add(new Crop(crops.size(), (String) c.get("name"), number(c, "growMs", 10_000).longValue(),
+                        number(c, "cost", 5).intValue(), number(c, "yield", 12).intValue(),
+                        number(c, "stealFloor", 0.20).doubleValue(), number(c, "stealShare", 0.25).doubleValue()));
+            }
+            return new FarmSpec(number(json, "rows", 4).intValue(), number(json, "cols", 4).intValue(),
+                    number(json, "startCoins", 40).intValue(), crops);
+        } catch (RuntimeException e) {
+            throw new IOException(STR."Bad farm config \{file}: \{e.getMessage()}", e);
+        }
+    }
+
+    private static Number number(Map<?, ?> json, String key, Number fallback) {
+        return json.get(key) instanceof Number n ? n : fallback;
+    }
+
+    int rows() { return rows; }
+    int cols() { return cols; }
+    int plots() { return rows * cols; }
+    int startCoins() { return startCoins; }
+    int crops() { return crops.length; }
+
+    Crop crop(int id) {
+        return crops[id];
+    }
+
+    /** @return the crop called {@code name}, or the first one if {@code name} is null */
+    Crop crop(String name) {
+        if (name == null) return crops[0];
+        Crop c = byName.get(name);
+        if (c == null) throw new IllegalStateException("No such crop: " + name);
+        return c;
+    }
+
+    /** The SPEC frame, encoded once and shared by every binary connection. */
+    ByteBuffer binary() {
+        return binary.duplicate();
+    }
+
+    /** What a client is told at login: the board size and, per crop, what it costs and pays. */
+    Map<String, Object> describe() {
+        Map<String, Object> spec = new LinkedHashMap<>();
+        spec.put("rows", rows);
+        spec.put("cols", cols);
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Crop c : crops) {
+            list.add(Map.of("name", c.name(), "growMs", c.growMs(), "cost", c.cost(), "yield", c.yield()));
+        }
+        spec.put("crops", list);
+        return spec;
+    }
+
+    @Override public String toString() {
+        return STR."\{rows}x\{cols} crops=\{byName.keySet()}";
+    }
+}
@@ -0,0 +1,402 @@
+package org.example.demo;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Durable farms for {@code --data=DIR}: every plot and coin change goes to the
+ * {@link WriteAheadLog}, and all farms are written to a compact snapshot every
+ * {@code --snapshot-secs}. Recovery loads the newest snapshot and replays only the log
+ * segments written since it was started.
+ * <p>
+ * Records hold the value <em>after</em> the change, read once the log slot is reserved.
+ * So for every plot the last record in log order carries its final value, however
+ * concurrent CASes and appends interleave, and replaying any suffix of the log that
+ * starts before a (fuzzy) snapshot yields the live state.
+ * <p>
+ * Cross-node steals ({@link Cluster}) are logged with the change they make: the victim's
+ * plot record carries the txn and amount, and the thief's coin record carries the txn, so
+ * a txn is never applied or credited without the log saying so. Steals sent but not yet
+ * settled on both sides are kept in the snapshot too.
+ */
+final class FarmStore implements Farm.Journal, AutoCloseable {
+    private static final byte NEW_FARM = 1;
+    private static final byte PLOT = 2;
+    private static final byte COINS = 3;
+    private static final byte AUDIT = 4; // a committed steal; not replayed into farms
+    private static final byte PEER_STEAL = 5;  // a plot robbed for another node's txn
+    private static final byte PEER_CREDIT = 6; // coins credited for this node's txn
+    private static final byte STEAL_SENT = 7;  // a steal forwarded to the victim's node
+    private static final byte TXN_DONE = 8;    // a cross-node txn settled on both sides
+    // [magic][fromSegment i64][nextId i32][count i32], then per farm
+    // [id UTF][coins i32][occupied u16] and (index u16, word i64) for each occupied plot;
+    // since QFM2 then [taken i32] x (txn UTF, amount i32) and [sent i32] x
+    // (txn UTF, thief UTF, victim UTF, row u16, col u16, settled bool)
+    private static final int SNAPSHOT_MAGIC_V1 = 0x51464D31; // "QFM1"
+    private static final int SNAPSHOT_MAGIC = 0x51464D32;    // "QFM2"
+
+    /** A steal this node forwarded to the victim's node; {@code settled} once answered. */
+    record SentSteal(String txn, String thief, String victim, int row, int col, boolean settled) {}
+
+    /**
+     * Cross-node steals still open: what this node took for other nodes' txns
+     * (txn -> amount), and the steals it sent, until the other side has forgotten them.
+     */
+    record OpenTxns(Map<String, Integer> taken, Map<String, SentSteal> sent) {
+        static OpenTxns empty() {
+            return new OpenTxns(new HashMap<>(), new HashMap<>());
+        }
+    }
+
+    /** Farms, id counter and open cross-node steals as they were when the server stopped. */
+    record Recovered(Map<String, Farm> farms, int nextId, OpenTxns txns) {}
+
+    /** A consistent copy of the farm list and id counter, taken with logins held off. */
+    record Contents(List<Farm> farms, int nextId, OpenTxns txns) {}
+
+    private final Path dir;
+    private final ServerConfig config;
+    private WriteAheadLog wal;
+    private ScheduledExecutorService snapshots;
+
+    FarmStore(Path dir, ServerConfig config) throws IOException {
+        this.dir = dir;
+        this.config = config;
+        Files.createDirectories(dir);
+    }
+
+    /** Rebuilds all farms, then starts logging. Call once, before serving. */
+    Recovered recover() throws IOException {
+        long start = System.currentTimeMillis();
+        boolean lazy = config.getGrowth() == ServerConfig.Growth.LAZY;
+        Map<String, Farm> farms = new HashMap<>();
+        int[] nextId = {1};
+        long fromSegment = 0;
+        OpenTxns txns = OpenTxns.empty();
+
+        Path snap = latestSnapshot();
+        if (snap != null) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snap), 1 << 16))) {
+                int magic = in.readInt();
+                if (magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_V1) throw new IOException("not a farm snapshot: " + snap);
+                fromSegment = in.readLong();
+                nextId[0] = in.readInt();
+                int count = in.readInt();
+                for (int f = 0; f < count; f++) {
+                    Farm farm = new Farm(in.readUTF(), config.getFarmSpec(), lazy, this);
+                    farm.restoreCoins(in.readInt());
+                    int occupied = in.readUnsignedShort();
+                    for (int k = 0; k < occupied; k++) restorePlot(farm, in.readUnsignedShort(), in.readLong());
+                    farms.put(farm.getId(), farm);
+                }
+                if (magic == SNAPSHOT_MAGIC) {
+                    for (int n = in.readInt(); n > 0; n--) txns.taken().put(in.readUTF(), in.readInt());
+                    for (int n = in.readInt(); n > 0; n--) {
+                        SentSteal sent = new SentSteal(in.readUTF(), in.readUTF(), in.readUTF(),
+                                in.readUnsignedShort(), in.readUnsignedShort(), in.readBoolean());
+                        txns.sent().put(sent.txn(), sent);
+                    }
+                }
+            }
+        }
+        long[] replayed = {0};
+        WriteAheadLog.replay(dir, fromSegment, rec -> {
+            byte type = rec.get();
+            if (type == AUDIT) return;
+            byte[] idBytes = new byte[rec.get() & 0xFF];
+            rec.get(idBytes);
+            String id = new String(idBytes, StandardCharsets.UTF_8);
+            replayed[0]++;
+            if (type == STEAL_SENT) {
+                String[] f = rest(rec).split(" ");
+                txns.sent().put(f[0], new SentSteal(f[0], id, f[1], Integer.parseInt(f[2]), Integer.parseInt(f[3]), false));
+                return;
+            }
+            if (type == TXN_DONE) {
+                txns.taken().remove(id);
+                txns.sent().remove(id);
+                return;
+            }
+            Farm farm = farms.computeIfAbsent(id, k -> new Farm(k, config.getFarmSpec(), lazy, this));
+            switch (type) {
+                case PLOT -> restorePlot(farm, rec.getShort() & 0xFFFF, rec.getLong());
+                case COINS -> farm.restoreCoins(rec.getInt());
+                case PEER_STEAL -> {
+                    restorePlot(farm, rec.getShort() & 0xFFFF, rec.getLong());
+                    int amount = rec.getInt();
+                    txns.taken().put(rest(rec), amount);
+                }
+                case PEER_CREDIT -> {
+                    farm.restoreCoins(rec.getInt());
+                    txns.sent().computeIfPresent(rest(rec), (k, sent) -> new SentSteal(
+                            sent.txn(), sent.thief(), sent.victim(), sent.row(), sent.col(), true));
+                }
+                default -> { } // NEW_FARM: created above
+            }
+        });
+        for (String id : farms.keySet()) {
+            try {
+                nextId[0] = Math.max(nextId[0], Integer.parseInt(id) + 1);
+            } catch (NumberFormatException ignore) {
+                // ids chosen by someone else don't affect ours
+            }
+        }
+        wal = new WriteAheadLog(dir, config.getWalSyncMs());
+        Log.info("[Store] recovered {} farms ({} log records) in {} ms", farms.size(), replayed[0], System.currentTimeMillis() - start);
+        return new Recovered(farms, nextId[0], txns);
+    }
+
+    /** The rest of a record as text. */
+    private static String rest(ByteBuffer rec) {
+        byte[] b = new byte[rec.remaining()];
+        rec.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** Recovery: a plot beyond the board means the data was saved with a bigger {@code --farm-config}. */
+    private static void restorePlot(Farm farm, int index, long word) {
+        if (index >= farm.getRows() * farm.getCols()) {
+            throw new IllegalStateException(STR."farm \{farm.getId()} has plot \{index} but farms are \{farm.getRows()}x\{farm.getCols()}; start with the --farm-config the data was saved with");
+        }
+        farm.restoreWord(index, word);
+    }
+
+    /** Writes a snapshot every {@code --snapshot-secs} from the live farms. */
+    void startSnapshots(Supplier<Contents> live) {
+        snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        long every = config.getSnapshotSecs();
+        snapshots.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(live);
+            } catch (Throwable t) {
+                Log.error("[Store] snapshot failed", t);
+            }
+        }, every, every, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes all farms without stopping the game. Farms keep changing while they are
+     * copied; that is fine because replay starts from the segment that was current
+     * before the farm list was taken.
+     */
+    void snapshot(Supplier<Contents> live) throws IOException {
+        long start = System.currentTimeMillis();
+        long fromSegment = wal.currentSegment();
+        // taken after fromSegment: a farm whose creation record is older is already listed
+        Contents contents = live.get();
+        List<Farm> farms = contents.farms();
+        Path tmp = dir.resolve("snapshot.tmp");
+        int count = 0;
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(fromSegment);
+            out.writeInt(contents.nextId());
+            out.writeInt(farms.size());
+            for (Farm farm : farms) {
+                out.writeUTF(farm.getId());
+                out.writeInt(farm.getCoins());
+                // only occupied plots: most of a farm is usually empty
+                int plots = farm.getRows() * farm.getCols();
+                long[] words = new long[plots];
+                int occupied = 0;
+                for (int i = 0; i < plots; i++) {
+                    words[i] = farm.wordAt(i);
+                    if (words[i] != PlotWord.EMPTY) occupied++;
+                }
+                out.writeShort(occupied);
+                for (int i = 0; i < plots; i++) {
+                    if (words[i] == PlotWord.EMPTY) continue;
+                    out.writeShort(i);
+                    out.writeLong(words[i]);
+                }
+                count++;
+            }
+            OpenTxns txns = contents.txns();
+            out.writeInt(txns.taken().size());
+            for (Map.Entry<String, Integer> e : txns.taken().entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue());
+            }
+            out.writeInt(txns.sent().size());
+            for (SentSteal sent : txns.sent().values()) {
+                out.writeUTF(sent.txn());
+                out.writeUTF(sent.thief());
+                out.writeUTF(sent.victim());
+                out.writeShort(sent.row());
+                out.writeShort(sent.col());
+                out.writeBoolean(sent.settled());
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Path snap = dir.resolve(String.format("snapshot-%016d.bin", fromSegment));
+        Files.move(tmp, snap, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path old : files.filter(p -> isSnapshot(p) && !p.equals(snap)).toList()) {
+                Files.deleteIfExists(old);
+            }
+        }
+        wal.deleteBefore(fromSegment);
+        Log.info("[Store] snapshot of {} farms in {} ms", count, System.currentTimeMillis() - start);
+    }
+
+    @Override public void farmCreated(Farm farm) {
+        append(farm, NEW_FARM, 0);
+    }
+
+    @Override public void plotChanged(Farm farm, int index) {
+        append(farm, PLOT, index);
+    }
+
+    @Override public void coinsChanged(Farm farm) {
+        append(farm, COINS, 0);
+    }
+
+    /** [PEER_STEAL][id length u8][id][index u16][word i64][amount i32][txn]; the word is read after the slot is reserved. */
+    @Override public void stolenForPeer(Farm farm, int index, String txn, int amount) {
+        byte[] id = farm.getId().getBytes(StandardCharsets.UTF_8);
+        byte[] t = txn.getBytes(StandardCharsets.UTF_8);
+        try {
+            WriteAheadLog.Slot slot = wal.reserve(2 + id.length + 14 + t.length);
+            ByteBuffer buf = slot.buf;
+            int p = slot.offset;
+            buf.put(p, PEER_STEAL);
+            buf.put(p + 1, (byte) id.length);
+            buf.put(p + 2, id);
+            p += 2 + id.length;
+            buf.putShort(p, (short) index);
+            buf.putLong(p + 2, farm.wordAt(index));
+            buf.putInt(p + 10, amount);
+            buf.put(p + 14, t);
+            slot.commit();
+        } catch (IOException e) {
+            Log.warn("[Store] log append failed: {}", e.getMessage());
+        }
+    }
+
+    /** [PEER_CREDIT][id length u8][id][coins i32][txn]; the balance is read after the slot is reserved. */
+    @Override public void creditedForPeer(Farm farm, String txn) {
+        byte[] id = farm.getId().getBytes(StandardCharsets.UTF_8);
+        byte[] t = txn.getBytes(StandardCharsets.UTF_8);
+        try {
+            WriteAheadLog.Slot slot = wal.reserve(2 + id.length + 4 + t.length);
+            ByteBuffer buf = slot.buf;
+            int p = slot.offset;
+            buf.put(p, PEER_CREDIT);
+            buf.put(p + 1, (byte) id.length);
+            buf.put(p + 2, id);
+            p += 2 + id.length;
+            buf.putInt(p, farm.getCoins());
+            buf.put(p + 4, t);
+            slot.commit();
+        } catch (IOException e) {
+            Log.warn("[Store] log append failed: {}", e.getMessage());
+        }
+    }
+
+    /** [STEAL_SENT][thief id length u8][thief id][text]: "txn victim row col". Before it is sent. */
+    void stealSent(SentSteal s) {
+        appendText(STEAL_SENT, s.thief(), STR."\{s.txn()} \{s.victim()} \{s.row()} \{s.col()}");
+    }
+
+    /** [TXN_DONE][txn length u8][txn]: both sides have settled it. */
+    void txnDone(String txn) {
+        appendText(TXN_DONE, txn, "");
+    }
+
+    private void appendText(byte type, String key, String text) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        byte[] t = text.getBytes(StandardCharsets.UTF_8);
+        try {
+            WriteAheadLog.Slot slot = wal.reserve(2 + k.length + t.length);
+            ByteBuffer buf = slot.buf;
+            buf.put(slot.offset, type);
+            buf.put(slot.offset + 1, (byte) k.length);
+            buf.put(slot.offset + 2, k);
+            buf.put(slot.offset + 2 + k.length, t);
+            slot.commit();
+        } catch (IOException e) {
+            Log.warn("[Store] log append failed: {}", e.getMessage());
+        }
+    }
+
+    /** [AUDIT][thief id length u8][thief id][text]: "txn victim row col amount thiefCoins at". */
+    void audit(FarmTransactions.Audit a) {
+        byte[] id = a.thief().getBytes(StandardCharsets.UTF_8);
+        byte[] text = STR."\{a.txn()} \{a.victim()} \{a.row()} \{a.col()} \{a.amount()} \{a.thiefCoins()} \{a.at()}"
+                .getBytes(StandardCharsets.UTF_8);
+        try {
+            WriteAheadLog.Slot slot = wal.reserve(2 + id.length + text.length);
+            ByteBuffer buf = slot.buf;
+            buf.put(slot.offset, AUDIT);
+            buf.put(slot.offset + 1, (byte) id.length);
+            buf.put(slot.offset + 2, id);
+            buf.put(slot.offset + 2 + id.length, text);
+            slot.commit();
+        } catch (IOException e) {
+            Log.warn("[Store] audit append failed: {}", e.getMessage());
+        }
+    }
+
+    /** [type u8][id length u8][id][value]; the value is read after the slot is reserved. */
+    private void append(Farm farm, byte type, int index) {
+        byte[] id = farm.getId().getBytes(StandardCharsets.UTF_8);
+        int len = 2 + id.length + switch (type) {
+            case PLOT -> 10;
+            case COINS -> 4;
+            default -> 0;
+        };
+        try {
+            WriteAheadLog.Slot slot = wal.reserve(len);
+            ByteBuffer buf = slot.buf;
+            int p = slot.offset;
+            buf.put(p, type);
+            buf.put(p + 1, (byte) id.length);
+            buf.put(p + 2, id);
+            p += 2 + id.length;
+            if (type == PLOT) {
+                buf.putShort(p, (short) index);
+                buf.putLong(p + 2, farm.wordAt(index));
+            } else if (type == COINS) {
+                buf.putInt(p, farm.getCoins());
+            }
+            slot.commit();
+        } catch (IOException e) {
+            // the change already happened in memory; losing durability is better than losing the game
+            Log.warn("[Store] log append failed: {}", e.getMessage());
+        }
+    }
+
+    @Override public void close() {
+        if (snapshots != null) snapshots.shutdownNow();
+        if (wal != null) wal.close();
+    }
+
+    private Path latestSnapshot() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(FarmStore::isSnapshot).max(Path::compareTo).orElse(null);
+        }
+    }
+
+    private static boolean isSnapshot(Path p) {
+        String n = p.getFileName().toString();
+        return n.startsWith("snapshot-") && n.endsWith(".bin");
+    }
+}
@@ -6,57 +6,89 @@ import javafx.application.Platform;
 import java.io.*;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class GameClient implements Closeable {
     private static final Gson GSON = new Gson();
-    private final String host;
-    private final int port;
+    // the shard to log in to; a redirect from the server moves it
+    private volatile String host;
+    private volatile int port;
     private final CSController controller;
-    private Socket sock;
+    // ask the server for compact binary state frames instead of JSON lines
+    private final boolean binary;
+    private volatile Socket sock;
     private BufferedReader in;
+    private DataInputStream binIn;
     private PrintWriter out;
     private Thread reader;
     private volatile boolean running = false;
+    // sequence number of the last state/delta applied; -1 while waiting for a full state
+    private long lastSeq = -1;
+    // requests sent with a rid and not yet answered; many may be in flight at once
+    private final AtomicLong nextRid = new AtomicLong();
+    private final Map<Long, CompletableFuture<Map<?, ?>>> pending = new ConcurrentHashMap<>();
+    static final long REQUEST_TIMEOUT_MS = 10_000;
     
     // Single thread executor to ensure order but run off UI thread
     private final ExecutorService sendExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "Client-Sender"));
 
     public GameClient(String host, int port, CSController controller) {
+        this(host, port, controller, false);
+    }
+
+    public GameClient(String host, int port, CSController controller, boolean binary) {
         this.host = host;
         this.port = port;
         this.controller = controller;
+        this.binary = binary;
     }
 
     public boolean connect(String existingId) throws IOException {
         try {
-            sock = new Socket(host, port);
-            in  = new BufferedReader(new InputStreamReader(sock.getInputStream(), StandardCharsets.UTF_8));
+            Socket s = new Socket(host, port);
+            sock = s;
+            if (binary) {
+                binIn = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            } else {
+                in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            }
+            DataInputStream binIn = this.binIn;
+            BufferedReader in = this.in;
             out = new PrintWriter(new OutputStreamWriter(sock.getOutputStream(), StandardCharsets.UTF_8), true);
             running = true;
             
             // Send handshake
-            send(Map.of("op", "login", "id", existingId == null ? "" : existingId));
+            send(Map.of("op", "login", "id", existingId == null ? "" : existingId,
+                    "proto", binary ? "bin" : "json", "delta", true));
 
             reader = new Thread(() -> {
                 try {
-                    String line;
-                    while (running && (line = in.readLine()) != null) {
-                        Map<?, ?> message = GSON.fromJson(line, Map.class);
-                        Object type = message.get("type");
-                        if ("state".equals(type)) {
-                            Platform.runLater(() -> controller.handleUpdate((Map<String, Object>) message));
-                        } else if ("error".equals(type)) {
-                            Platform.runLater(() -> controller.handleError(String.valueOf(message.get("msg"))));
-                        } else {
-                            String finalLine = line;
-                            Platform.runLater(() ->  controller.handleError("Unknown: " + finalLine));
+                    // sock changes when a redirect moves us to another shard; this reader then stops
+                    if (binary) {
+                        while (running && sock == s) {
+                            dispatch(BinaryCodec.read(binIn), null);
+                        }
+                    } else {
+                        String line;
+                        while (running && sock == s && (line = in.readLine()) != null) {
+                            dispatch(GSON.fromJson(line, Map.class), line);
                         }
                     }
                 } catch (IOException e) {
-                    if (running) Platform.runLater(() ->  controller.handleError("Disconnected"));
+                    if (running && sock == s) {
+                        failPending("Disconnected");
+                        Platform.runLater(() ->  controller.handleError("Disconnected"));
+                    }
                 }
             }, "net-reader");
             reader.setDaemon(true);
@@ -68,11 +100,65 @@ public class GameClient implements Closeable {
         }
     }
 
+    /** Runs on the reader thread, so {@code lastSeq} needs no synchronization. */
+    @SuppressWarnings("unchecked")
+    private void dispatch(Map<?, ?> message, String raw) {
+        Object type = message.get("type");
+        if ("state".equals(type)) {
+            if (message.get("seq") instanceof Number n) lastSeq = n.longValue();
+            Platform.runLater(() -> controller.handleUpdate((Map<String, Object>) message));
+        } else if ("delta".equals(type)) {
+            long seq = ((Number) message.get("seq")).longValue();
+            if (lastSeq < 0 || seq != lastSeq + 1) {
+                // missed or out-of-order patch: drop patches until a full state arrives
+                if (lastSeq >= 0) send(Map.of("op", "resync"));
+                lastSeq = -1;
+                return;
+            }
+            lastSeq = seq;
+            Platform.runLater(() -> controller.handleDelta((Map<String, Object>) message));
+        } else if ("redirect".equals(type)) {
+            // our farm lives on another shard: log in there instead
+            host = (String) message.get("host");
+            port = ((Number) message.get("port")).intValue();
+            String id = (String) message.get("id");
+            failPending("Moved to another server");
+            sendExecutor.submit(() -> {
+                try {
+                    synchronized (this) {
+                        Socket old = sock;
+                        sock = null; // the old reader exits quietly
+                        out = null;
+                        old.close();
+                    }
+                    connect(id);
+                } catch (IOException e) {
+                    Platform.runLater(() -> controller.handleError("Redirect failed: " + e.getMessage()));
+                }
+            });
+        } else if ("ack".equals(type) || "batch".equals(type)) {
+            if (message.get("rid") instanceof Number rid) {
+                CompletableFuture<Map<?, ?>> f = pending.remove(rid.longValue());
+                if (f != null) f.complete(message);
+            }
+        } else if ("error".equals(type)) {
+            if (message.get("rid") instanceof Number rid) {
+                CompletableFuture<Map<?, ?>> f = pending.remove(rid.longValue());
+                if (f != null) f.completeExceptionally(new IllegalStateException(String.valueOf(message.get("msg"))));
+            }
+            Platform.runLater(() -> controller.handleError(String.valueOf(message.get("msg"))));
+        } else {
+            String text = raw != null ? raw : String.valueOf(message);
+            Platform.runLater(() ->  controller.handleError("Unknown: " + text));
+        }
+    }
+
     private void send(Map<String,Object> obj) {
         sendExecutor.submit(() -> {
             synchronized (this) {
                 if (out == null) {
                     System.err.println("[GameClient] Cannot send - not connected to server");
+                    failPending("Not connected");
                     Platform.runLater(() -> controller.handleError("disconnect from server"));
                     return;
                 }
@@ -87,19 +173,92 @@ public class GameClient implements Closeable {
         });
     }
 
-    public void plant(int r, int c) { send(Map.of("op","plant","row",r,"col",c)); }
-    public void harvest(int r, int c) { send(Map.of("op","harvest","row",r,"col",c)); }
-    public void steal(int r, int c) { send(Map.of("op","steal","row",r,"col",c)); }
-    public void view(String player) {send(Map.of("op","view","target", player));}
+    /**
+     * Sends a request tagged with a fresh rid without waiting for earlier ones to be
+     * answered. The future completes with the server's answer once it arrives, or
+     * exceptionally with its error, when the connection is lost first, or with a
+     * {@link java.util.concurrent.TimeoutException} if no answer comes within {@link #REQUEST_TIMEOUT_MS}.
+     */
+    private CompletableFuture<Map<?, ?>> request(Map<String,Object> obj) {
+        long rid = nextRid.incrementAndGet();
+        CompletableFuture<Map<?, ?>> f = new CompletableFuture<>();
+        pending.put(rid, f);
+        // a late answer finds no future and is ignored
+        f.orTimeout(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS).whenComplete((m, e) -> pending.remove(rid, f));
+        Map<String,Object> tagged = new HashMap<>(obj);
+        tagged.put("rid", rid);
+        send(tagged);
+        return f;
+    }
+
+    private void failPending(String why) {
+        for (Long rid : pending.keySet()) {
+            CompletableFuture<Map<?, ?>> f = pending.remove(rid);
+            if (f != null) f.completeExceptionally(new IOException(why));
+        }
+    }
+
+    private CompletableFuture<String> ack(Map<String,Object> obj) {
+        return request(obj).thenApply(m -> String.valueOf(m.get("msg")));
+    }
+
+    public CompletableFuture<String> plant(int r, int c) { return ack(Map.of("op","plant","row",r,"col",c)); }
+    /** @param crop a crop name from the server's welcome {@code spec} */
+    public CompletableFuture<String> plant(int r, int c, String crop) { return ack(Map.of("op","plant","row",r,"col",c,"crop",crop)); }
+    public CompletableFuture<String> harvest(int r, int c) { return ack(Map.of("op","harvest","row",r,"col",c)); }
+    public CompletableFuture<String> steal(int r, int c) { return ack(Map.of("op","steal","row",r,"col",c)); }
+    public CompletableFuture<String> view(String player) { return ack(Map.of("op","view","target", player)); }
+
+    /**
+     * One plot action of a {@link #batch}: {@code "plant"}, {@code "harvest"} or {@code "steal"};
+     * {@code crop} is what to plant, null for the server's first crop.
+     */
+    public record Action(String op, int row, int col, String crop) {
+        public Action(String op, int row, int col) {
+            this(op, row, col, null);
+        }
+    }
+
+    /** How one batch item went, with the message the single request would have got. */
+    public record Result(boolean ok, String msg) {}
+
+    /**
+     * Sends all {@code actions} as one request: the server applies them in order in one go
+     * and pushes the resulting state once. Plants and harvests hit your own farm, steals the
+     * farm you are viewing. The future has one result per action, in the same order.
+     */
+    public CompletableFuture<List<Result>> batch(List<Action> actions) {
+        List<Map<String,Object>> items = new ArrayList<>();
+        for (Action a : actions) {
+            items.add(a.crop() == null ? Map.of("op", a.op(), "row", a.row(), "col", a.col())
+                    : Map.of("op", a.op(), "row", a.row(), "col", a.col(), "crop", a.crop()));
+        }
+        return request(Map.of("op", "batch", "actions", items)).thenApply(m -> {
+            List<Result> results = new ArrayList<>();
+            for (Object o : (List<?>) m.get("results")) {
+                Map<?, ?> r = (Map<?, ?>) o;
+                results.add(new Result(Boolean.TRUE.equals(r.get("ok")), String.valueOf(r.get("msg"))));
+            }
+            return results;
+        });
+    }
+    /** Player list: everyone (the default after login). */
+    public void playersAll() { send(Map.of("op","players","mode","all")); }
+    /** Player list: {@code limit} players starting at {@code offset}, in join order. */
+    public void playersPage(int offset, int limit) { send(Map.of("op","players","mode","page","offset",offset,"limit",limit)); }
+    /** Player list: only these players (and yourself). */
+    public void playersFriends(Collection<String> ids) { send(Map.of("op","players","mode","friends","ids",ids)); }
     public void quit() { send(Map.of("op","quit")); }
     @Override public void close() throws IOException {
         running = false;
+        failPending("Closed");
         sendExecutor.shutdownNow();
         closeResources();
     }
     private void closeResources() {
         try {
             if (in != null) in.close();
+            if (binIn != null) binIn.close();
         } catch (IOException ignore) {}
 
         try {
@@ -0,0 +1,43 @@
+package org.example.demo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of player ids onto cluster nodes. Each node gets {@code vnodes}
+ * points on a 64-bit ring and an id belongs to the first point at or after its hash,
+ * so adding a node moves only about 1/n of the farms.
+ */
+final class HashRing {
+    private final TreeMap<Long, Integer> points = new TreeMap<>();
+
+    HashRing(int nodes, int vnodes) {
+        for (int n = 0; n < nodes; n++) {
+            for (int v = 0; v < vnodes; v++) {
+                points.put(hash("node-" + n + "#" + v), n);
+            }
+        }
+    }
+
+    /** @return index of the node that owns {@code id} */
+    int owner(String id) {
+        Map.Entry<Long, Integer> e = points.ceilingEntry(hash(id));
+        return (e != null ? e : points.firstEntry()).getValue();
+    }
+
+    /** FNV-1a over UTF-8, then a murmur3 finalizer so short numeric ids spread over the whole ring. */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
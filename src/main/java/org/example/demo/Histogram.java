@@ -0,0 +1,65 @@
+package org.example.demo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of non-negative values (nanoseconds, usually), in the spirit of
+ * HdrHistogram: values below 128 are exact, larger ones fall into 64 buckets per power of
+ * two, so a percentile is off by at most 1/64 of the value. Recording is one atomic add on
+ * the bucket plus a striped {@link LongAdder} add for the count; the max is only written
+ * when a value beats it, so threads recording at once do not queue on one shared word.
+ * No lock: any number of threads may record while another reads.
+ */
+final class Histogram {
+    private static final int EXACT = 128;
+    private static final int PER_OCTAVE = 64;
+
+    private final AtomicLongArray counts = new AtomicLongArray(EXACT + 57 * PER_OCTAVE);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        total.increment();
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    long count() {
+        return total.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /** @return the value at quantile {@code q} (0..1), as the top of its bucket; 0 if empty */
+    long percentile(double q) {
+        long n = total.sum();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highest(i), max.get());
+        }
+        return max.get();
+    }
+
+    private static int index(long v) {
+        if (v < EXACT) return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - 6; // keeps the top 7 bits
+        return EXACT + (shift - 1) * PER_OCTAVE + (int) (v >>> shift) - PER_OCTAVE;
+    }
+
+    /** Largest value that lands in bucket {@code i}. */
+    private static long highest(int i) {
+        if (i < EXACT) return i;
+        int k = i - EXACT;
+        int shift = k / PER_OCTAVE + 1;
+        long top = k % PER_OCTAVE + PER_OCTAVE;
+        return (top << shift) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,404 @@
+package org.example.demo;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Headless load generator against a running server. Logs in {@code --players} clients
+ * ({@link ConcurrencyTest.SimpleClient}s, one virtual thread reading each), then fires
+ * requests at a fixed average {@code --rate} with exponential gaps, whether or not earlier
+ * ones were answered (open loop), so a slow server shows up as latency instead of being
+ * hidden by clients that wait.
+ *
+ * <pre>
+ * LoadGenerator --port=5050 --players=2000 --rate=2000 --duration=60
+ *               --mix=plant:30,harvest:25,steal:25,view:15,reconnect:5 --seed=42
+ *               --gate-p99-ms=50 --gate-rate=1900
+ * </pre>
+ * Every request carries a {@code rid}; its latency runs from the moment it was due to its
+ * ack or error. Push lag runs from a plant or harvest on the farm a player is watching to
+ * the first push showing that plot changed. At the end every player resyncs and the coins
+ * are checked: the sum of all balances must equal the starting coins, minus every plant,
+ * plus every harvest, plus what was stolen from crops still in the ground. The process exits
+ * with status 1 if that check or a gate fails.
+ */
+public class LoadGenerator {
+    private static final Gson GSON = new Gson();
+    private static final String[] OPS = {"plant", "harvest", "steal", "view", "reconnect"};
+    private static final Pattern STOLE = Pattern.compile("(\\S+) stole (\\d+) from (\\S+) at \\((\\d+),(\\d+)\\)");
+    private static final long DRAIN_NS = TimeUnit.SECONDS.toNanos(10);
+
+    /** A request on the wire; {@code dueAt} is when the schedule said to send it. */
+    private record Pending(String op, long dueAt, int row, int col, String target) {}
+
+    /** A successful steal, to tell at the end whether the crop it hit was harvested since. */
+    private record Steal(String victim, int plot, int amount, long dueAt) {}
+
+    /** A plot change this player expects to see pushed. */
+    private record Watch(String state, long dueAt) {}
+
+    private static final class OpStats {
+        final Histogram latency = new Histogram();
+        final LongAdder sent = new LongAdder(), ok = new LongAdder(), rejected = new LongAdder(), skipped = new LongAdder();
+    }
+
+    private final class Player {
+        final int index;
+        final ReentrantLock lock = new ReentrantLock(); // a reconnect never overlaps a send
+        volatile ConcurrencyTest.SimpleClient client;
+        volatile String id;
+        volatile String viewing;
+        volatile int coins;
+        int startCoins;
+        final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+        final Map<Integer, Watch> watches = new ConcurrentHashMap<>();
+
+        Player(int index) {
+            this.index = index;
+        }
+
+        void connect(String requestedId) throws IOException {
+            ConcurrencyTest.SimpleClient c = new ConcurrencyTest.SimpleClient("p" + index, host, port);
+            c.connect();
+            // a friends-only list keeps pushes small; the list is not what is being measured
+            id = c.login(requestedId, Map.of("delta", true, "players", Map.of("mode", "friends", "ids", List.of())));
+            coins = ((Number) c.welcome.get("coins")).intValue();
+            if (c.welcome.get("spec") instanceof Map<?, ?> spec) readSpec(spec);
+            viewing = id;
+            client = c;
+            Thread.ofVirtual().name("load-" + index).start(() -> read(this, c));
+        }
+
+        void send(long rid, Pending p, Map<String, Object> req) {
+            pending.put(rid, p);
+            Map<String, Object> tagged = new HashMap<>(req);
+            tagged.put("rid", rid);
+            client.send(tagged);
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final Map<String, OpStats> stats = new LinkedHashMap<>();
+    private final Histogram pushLag = new Histogram();
+    private final AtomicLong rids = new AtomicLong();
+    private final LongAdder lateArrivals = new LongAdder();
+    private final LongAdder plants = new LongAdder(), harvests = new LongAdder();
+    private final Queue<Steal> steals = new ConcurrentLinkedQueue<>();
+    // "farm:plot" -> when the latest successful harvest of it was acked
+    private final Map<String, Long> harvestedAt = new ConcurrentHashMap<>();
+    private volatile boolean stopping;
+    private Player[] players;
+    // the server's farm size and first crop, from the welcome's spec (default 4x4)
+    private volatile int cols = 4, plots = 16, plantCost = 5, harvestReward = 12;
+
+    private LoadGenerator(String host, int port) {
+        this.host = host;
+        this.port = port;
+        for (String op : OPS) stats.put(op, new OpStats());
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = 5050, playerCount = 1000, seconds = 60;
+        double rate = 500, gateP99Ms = -1, gateRate = -1;
+        long seed = 42;
+        String mix = "plant:30,harvest:25,steal:25,view:15,reconnect:5";
+        for (String arg : args) {
+            String v = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--host=")) host = v;
+            else if (arg.startsWith("--port=")) port = Integer.parseInt(v);
+            else if (arg.startsWith("--players=")) playerCount = Integer.parseInt(v);
+            else if (arg.startsWith("--rate=")) rate = Double.parseDouble(v);
+            else if (arg.startsWith("--duration=")) seconds = Integer.parseInt(v);
+            else if (arg.startsWith("--mix=")) mix = v;
+            else if (arg.startsWith("--seed=")) seed = Long.parseLong(v);
+            else if (arg.startsWith("--gate-p99-ms=")) gateP99Ms = Double.parseDouble(v);
+            else if (arg.startsWith("--gate-rate=")) gateRate = Double.parseDouble(v);
+            else throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+        boolean passed = new LoadGenerator(host, port).run(playerCount, rate, seconds, parseMix(mix), seed, gateP99Ms, gateRate);
+        System.exit(passed ? 0 : 1);
+    }
+
+    /** Plants name no crop, so the server's first crop sets the prices. */
+    private void readSpec(Map<?, ?> spec) {
+        int rows = ((Number) spec.get("rows")).intValue();
+        cols = ((Number) spec.get("cols")).intValue();
+        plots = rows * cols;
+        Map<?, ?> crop = (Map<?, ?>) ((List<?>) spec.get("crops")).get(0);
+        plantCost = ((Number) crop.get("cost")).intValue();
+        harvestReward = ((Number) crop.get("yield")).intValue();
+    }
+
+    /** "plant:30,steal:10" into cumulative weights over {@link #OPS}. */
+    private static double[] parseMix(String mix) {
+        double[] weights = new double[OPS.length];
+        for (String part : mix.split(",")) {
+            String[] kv = part.split(":");
+            int op = Arrays.asList(OPS).indexOf(kv[0].trim());
+            if (op < 0 || kv.length != 2) throw new IllegalArgumentException("Bad mix entry: " + part);
+            weights[op] = Double.parseDouble(kv[1]);
+        }
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) weights[i] = sum += weights[i];
+        if (sum <= 0) throw new IllegalArgumentException("Empty mix");
+        for (int i = 0; i < weights.length; i++) weights[i] /= sum;
+        return weights;
+    }
+
+    private boolean run(int playerCount, double rate, int seconds, double[] mix, long seed,
+                        double gateP99Ms, double gateRate) throws Exception {
+        Random rnd = new Random(seed);
+        players = new Player[playerCount];
+        long loginStart = System.nanoTime();
+        try (ExecutorService logins = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < playerCount; i++) {
+                Player p = players[i] = new Player(i);
+                logins.submit(() -> {
+                    p.connect(null);
+                    p.startCoins = p.coins;
+                    return null;
+                });
+            }
+        }
+        System.out.printf("%d players logged in in %d ms%n", playerCount,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loginStart));
+        // most players start out visiting someone, so there is somebody to rob
+        for (Player p : players) {
+            if (playerCount > 1 && rnd.nextInt(4) != 0) {
+                Player other = players[(p.index + 1 + rnd.nextInt(playerCount - 1)) % playerCount];
+                long rid = rids.incrementAndGet();
+                p.send(rid, new Pending("view", System.nanoTime(), 0, 0, other.id), Map.of("op", "view", "target", other.id));
+            }
+        }
+        Thread.sleep(500);
+        stats.replaceAll((op, s) -> new OpStats()); // the warm-up views are not part of the run
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long due = start;
+        long fired = 0;
+        try (ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (true) {
+                due += (long) (-Math.log(1 - rnd.nextDouble()) / rate * 1e9);
+                if (due >= end) break;
+                long wait = due - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+                else if (wait < -TimeUnit.MILLISECONDS.toNanos(10)) lateArrivals.increment();
+                Player p = players[rnd.nextInt(playerCount)];
+                String op = pick(mix, rnd.nextDouble());
+                int plot = rnd.nextInt(plots);
+                Player target = players[rnd.nextInt(playerCount)];
+                long dueAt = due;
+                senders.submit(() -> fire(p, op, plot, target, dueAt));
+                fired++;
+            }
+        }
+        long sendMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        // drain: wait for answers, then have every player fetch a full state for the coin check
+        stopping = true;
+        long drainUntil = System.nanoTime() + DRAIN_NS;
+        while (System.nanoTime() < drainUntil && Arrays.stream(players).anyMatch(p -> !p.pending.isEmpty())) {
+            Thread.sleep(50);
+        }
+        long lost = Arrays.stream(players).mapToLong(p -> p.pending.size()).sum();
+        for (Player p : players) {
+            if (p.client != null) p.client.send(Map.of("op", "resync"));
+        }
+        Thread.sleep(2000);
+
+        return report(playerCount, rate, seconds, fired, sendMs, lost, gateP99Ms, gateRate);
+    }
+
+    private static String pick(double[] mix, double x) {
+        for (int i = 0; i < mix.length; i++) {
+            if (x < mix[i]) return OPS[i];
+        }
+        return OPS[OPS.length - 1];
+    }
+
+    private void fire(Player p, String op, int plot, Player target, long dueAt) {
+        OpStats s = stats.get(op);
+        s.sent.increment();
+        int row = plot / cols, col = plot % cols;
+        p.lock.lock();
+        try {
+            if (p.client == null) {
+                s.skipped.increment(); // an earlier reconnect failed
+                return;
+            }
+            long rid = rids.incrementAndGet();
+            switch (op) {
+                case "plant", "harvest" -> {
+                    if (p.id.equals(p.viewing)) {
+                        p.watches.put(plot, new Watch(op.equals("plant") ? "GROWING" : "EMPTY", dueAt));
+                    }
+                    p.send(rid, new Pending(op, dueAt, row, col, p.id), Map.of("op", op, "row", row, "col", col));
+                }
+                case "steal" -> p.send(rid, new Pending(op, dueAt, row, col, p.viewing), Map.of("op", op, "row", row, "col", col));
+                case "view" -> p.send(rid, new Pending(op, dueAt, 0, 0, target.id), Map.of("op", "view", "target", target.id));
+                case "reconnect" -> {
+                    if (!p.pending.isEmpty()) {
+                        // an answer still in flight would be lost, and with it what it changed
+                        s.skipped.increment();
+                        return;
+                    }
+                    ConcurrencyTest.SimpleClient old = p.client;
+                    p.client = null; // its reader ends quietly
+                    old.close();
+                    p.watches.clear();
+                    p.connect(p.id);
+                    s.latency.record(System.nanoTime() - dueAt);
+                    s.ok.increment();
+                }
+            }
+        } catch (IOException e) {
+            s.rejected.increment();
+        } finally {
+            p.lock.unlock();
+        }
+    }
+
+    /** Reader of one connection; stops when a reconnect replaces it. */
+    private void read(Player p, ConcurrencyTest.SimpleClient c) {
+        try {
+            String line;
+            while ((line = c.in.readLine()) != null) {
+                long now = System.nanoTime();
+                Map<?, ?> msg = GSON.fromJson(line, Map.class);
+                Object type = msg.get("type");
+                if ("state".equals(type) || "delta".equals(type)) {
+                    onPush(p, msg, now);
+                } else if (("ack".equals(type) || "error".equals(type)) && msg.get("rid") instanceof Number n) {
+                    Pending req = p.pending.remove(n.longValue());
+                    if (req != null) onAnswer(p, req, "ack".equals(type), String.valueOf(msg.get("msg")), now);
+                }
+            }
+        } catch (IOException e) {
+            if (!stopping && p.client == c) System.out.println("[LoadGenerator] " + c.name + " lost: " + e.getMessage());
+        }
+    }
+
+    private void onPush(Player p, Map<?, ?> msg, long now) {
+        if (msg.get("coins") instanceof Number n) p.coins = n.intValue();
+        if (p.watches.isEmpty()) return;
+        if (msg.get("plots") instanceof List<?> plots) {
+            for (Object o : plots) {
+                List<?> cell = (List<?>) o;
+                int plot = ((Number) cell.get(0)).intValue() * cols + ((Number) cell.get(1)).intValue();
+                matchWatch(p, plot, String.valueOf(cell.get(2)), now);
+            }
+        } else if (msg.get("board") instanceof List<?> board) {
+            for (int r = 0; r < board.size(); r++) {
+                List<?> row = (List<?>) board.get(r);
+                for (int col = 0; col < row.size(); col++) matchWatch(p, r * cols + col, String.valueOf(row.get(col)), now);
+            }
+        }
+    }
+
+    private void matchWatch(Player p, int plot, String state, long now) {
+        Watch w = p.watches.get(plot);
+        if (w != null && w.state().equals(state) && p.watches.remove(plot, w)) {
+            pushLag.record(now - w.dueAt());
+        }
+    }
+
+    private void onAnswer(Player p, Pending req, boolean ack, String text, long now) {
+        OpStats s = stats.get(req.op());
+        s.latency.record(now - req.dueAt());
+        boolean ok = ack;
+        switch (req.op()) {
+            case "plant" -> { if (ok) plants.increment(); }
+            case "harvest" -> {
+                if (ok) {
+                    harvests.increment();
+                    harvestedAt.merge(p.id + ":" + (req.row() * cols + req.col()), now, Math::max);
+                }
+            }
+            case "steal" -> {
+                // a refused steal is still answered with an ack whose text says why
+                Matcher m = STOLE.matcher(text);
+                ok = ack && m.matches();
+                if (ok) {
+                    int plot = Integer.parseInt(m.group(4)) * cols + Integer.parseInt(m.group(5));
+                    steals.add(new Steal(m.group(3), plot, Integer.parseInt(m.group(2)), req.dueAt()));
+                }
+            }
+            case "view" -> { if (ok) p.viewing = req.target(); }
+            default -> {}
+        }
+        if (!ok && (req.op().equals("plant") || req.op().equals("harvest"))) {
+            p.watches.remove(req.row() * cols + req.col());
+        }
+        (ok ? s.ok : s.rejected).increment();
+    }
+
+    private boolean report(int playerCount, double rate, int seconds, long fired, long sendMs, long lost,
+                           double gateP99Ms, double gateRate) {
+        System.out.println();
+        System.out.printf("=== LoadGenerator: %d players, %.0f req/s for %d s against %s:%d ===%n",
+                playerCount, rate, seconds, host, port);
+        System.out.printf("%-10s %8s %8s %8s %8s %9s %9s %9s %9s %9s%n",
+                "op", "sent", "ok", "refused", "skipped", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        long answered = 0;
+        for (Map.Entry<String, OpStats> e : stats.entrySet()) {
+            OpStats s = e.getValue();
+            answered += s.ok.sum() + s.rejected.sum();
+            printRow(e.getKey(), s.sent.sum(), s.ok.sum(), s.rejected.sum(), s.skipped.sum(), s.latency);
+        }
+        printRow("push lag", pushLag.count(), -1, -1, -1, pushLag);
+        double achieved = answered * 1000.0 / sendMs;
+        System.out.printf("throughput %d requests in %d ms: %.0f/s answered (target %.0f/s), %d late by >10 ms, %d unanswered%n",
+                fired, sendMs, achieved, rate, lateArrivals.sum(), lost);
+
+        // every steal either went into a harvest already paid out or still sits in the ground
+        long started = 0, observed = 0, stolen = 0, standing = 0;
+        for (Player p : players) {
+            started += p.startCoins;
+            observed += p.coins;
+        }
+        for (Steal st : steals) {
+            stolen += st.amount();
+            Long harvested = harvestedAt.get(st.victim() + ":" + st.plot());
+            if (harvested == null || harvested < st.dueAt()) standing += st.amount();
+        }
+        long expected = started - (long) plantCost * plants.sum() + (long) harvestReward * harvests.sum() + standing;
+        boolean conserved = expected == observed;
+        System.out.printf("coins      start %d - %d plants x %d + %d harvests x %d + %d stolen from standing crops (of %d stolen)%n",
+                started, plants.sum(), plantCost, harvests.sum(), harvestReward, standing, stolen);
+        System.out.printf("           expected %d, observed %d: %s%n", expected, observed,
+                conserved ? "OK" : lost > 0 ? "MISMATCH (with unanswered requests)" : "MISMATCH");
+
+        boolean passed = conserved;
+        if (gateP99Ms >= 0) {
+            double worstP99 = stats.values().stream().mapToLong(s -> s.latency.percentile(0.99)).max().orElse(0) / 1e6;
+            boolean ok = worstP99 <= gateP99Ms;
+            System.out.printf("gate       worst p99 %.2f ms <= %.2f ms: %s%n", worstP99, gateP99Ms, ok ? "PASS" : "FAIL");
+            passed &= ok;
+        }
+        if (gateRate >= 0) {
+            boolean ok = achieved >= gateRate;
+            System.out.printf("gate       %.0f/s >= %.0f/s: %s%n", achieved, gateRate, ok ? "PASS" : "FAIL");
+            passed &= ok;
+        }
+        return passed;
+    }
+
+    private static void printRow(String name, long sent, long ok, long refused, long skipped, Histogram h) {
+        System.out.printf("%-10s %8d %8s %8s %8s %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, sent,
+                ok < 0 ? "" : ok, refused < 0 ? "" : refused, skipped < 0 ? "" : skipped,
+                h.percentile(0.50) / 1e6, h.percentile(0.90) / 1e6, h.percentile(0.99) / 1e6,
+                h.percentile(0.999) / 1e6, h.max() / 1e6);
+    }
+}
@@ -0,0 +1,226 @@
+package org.example.demo;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection-scaling report for comparing server modes. Starts a {@link Server} in this
+ * JVM, opens many mostly idle connections, then prints memory and request latency.
+ *
+ * <pre>
+ * LoadReport --connections=10000 --samples=5000 --inflight=32 --threads=virtual
+ * LoadReport --connections=10000 --samples=5000 --inflight=32 --threads=platform
+ * LoadReport --connections=10000 --samples=5000 --inflight=32 --core=nio
+ * </pre>
+ * Connections log in with an empty friends-only player list unless {@code --players=all}
+ * is given. Any option not listed here is passed on to {@link ServerConfig}. Latency is the round
+ * trip of a {@code plant} on an occupied plot, which runs the full handler path
+ * (parse, farm lock, error reply) and always produces exactly one reply line.
+ */
+public class LoadReport {
+    private static final int DEFAULT_PORT = 5099;
+
+    public static void main(String[] args) throws Exception {
+        int connections = 1000;
+        int samples = 2000;
+        int inflight = 32;
+        boolean allPlayers = false;
+        List<String> serverArgs = new ArrayList<>();
+        serverArgs.add("--port=" + DEFAULT_PORT);
+        for (String arg : args) {
+            if (arg.startsWith("--connections=")) connections = Integer.parseInt(arg.substring(14));
+            else if (arg.startsWith("--samples=")) samples = Integer.parseInt(arg.substring(10));
+            else if (arg.startsWith("--inflight=")) inflight = Integer.parseInt(arg.substring(11));
+            else if (arg.equals("--players=all")) allPlayers = true;
+            else serverArgs.add(arg);
+        }
+        ServerConfig config = ServerConfig.parse(serverArgs.toArray(String[]::new));
+
+        long heapBefore = usedHeapAfterGc();
+        long rssBefore = rssKb();
+
+        Thread serverThread = new Thread(() -> {
+            try {
+                new Server(config).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "server-main");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        awaitListening(config.getPort());
+
+        Selector selector = Selector.open();
+        Conn[] conns = new Conn[connections];
+        Semaphore window = new Semaphore(inflight);
+        long[] latencies = new long[samples];
+        AtomicInteger recorded = new AtomicInteger();
+        AtomicInteger welcomed = new AtomicInteger();
+
+        Thread reader = new Thread(() -> readLoop(selector, window, latencies, recorded, welcomed), "report-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            SocketChannel ch = SocketChannel.open(new InetSocketAddress("localhost", config.getPort()));
+            conns[i] = new Conn(ch);
+            conns[i].write(allPlayers ? "{\"op\":\"login\",\"id\":\"\"}"
+                    : "{\"op\":\"login\",\"id\":\"\",\"players\":{\"mode\":\"friends\",\"ids\":[]}}");
+            conns[i].write("{\"op\":\"plant\",\"row\":0,\"col\":0}");
+            ch.configureBlocking(false);
+            ch.register(selector, SelectionKey.OP_READ, conns[i]);
+            selector.wakeup();
+        }
+        while (welcomed.get() < connections) {
+            Thread.sleep(50);
+        }
+        long connectMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart);
+        Thread.sleep(1000); // let the login broadcasts and first plant settle
+
+        long heapAfter = usedHeapAfterGc();
+        long rssAfter = rssKb();
+        int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        Random rnd = new Random(42);
+        long runStart = System.nanoTime();
+        for (int i = 0; i < samples; i++) {
+            window.acquire();
+            Conn c;
+            do {
+                c = conns[rnd.nextInt(connections)];
+            } while (c.sentAt != 0);
+            c.sentAt = System.nanoTime();
+            c.write("{\"op\":\"plant\",\"row\":0,\"col\":0}");
+        }
+        window.acquire(inflight);
+        long runMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - runStart));
+
+        Arrays.sort(latencies);
+        System.out.println();
+        System.out.println("=== LoadReport: " + config + " ===");
+        System.out.printf("connections        %d (connect+login %d ms)%n", connections, connectMs);
+        System.out.printf("heap used          %.1f MB (+%.1f KB per connection)%n",
+                heapAfter / 1048576.0, (heapAfter - heapBefore) / 1024.0 / connections);
+        System.out.printf("process RSS        %s%n", rssAfter < 0 ? "n/a"
+                : String.format("%.1f MB (+%.1f KB per connection)", rssAfter / 1024.0, (rssAfter - rssBefore) / (double) connections));
+        System.out.printf("platform threads   %d%n", platformThreads);
+        System.out.printf("requests           %d in %d ms (%d/s, %d in flight)%n",
+                samples, runMs, samples * 1000L / runMs, inflight);
+        System.out.printf("latency us         p50=%d p90=%d p99=%d p99.9=%d max=%d%n",
+                micros(latencies, 0.50), micros(latencies, 0.90), micros(latencies, 0.99),
+                micros(latencies, 0.999), latencies[samples - 1] / 1000);
+        System.exit(0);
+    }
+
+    /** Client side of one connection; {@code line} is only touched by the reader thread. */
+    private static final class Conn {
+        final SocketChannel ch;
+        final StringBuilder line = new StringBuilder();
+        volatile long sentAt;
+        boolean welcomed;
+
+        Conn(SocketChannel ch) {
+            this.ch = ch;
+        }
+
+        void write(String json) throws IOException {
+            ByteBuffer out = ByteBuffer.wrap((json + "\n").getBytes(StandardCharsets.UTF_8));
+            while (out.hasRemaining()) ch.write(out);
+        }
+    }
+
+    private static void readLoop(Selector selector, Semaphore window, long[] latencies,
+                                 AtomicInteger recorded, AtomicInteger welcomed) {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        try {
+            while (true) {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Conn c = (Conn) key.attachment();
+                    buf.clear();
+                    if (c.ch.read(buf) < 0) {
+                        key.cancel();
+                        continue;
+                    }
+                    buf.flip();
+                    while (buf.hasRemaining()) {
+                        char ch = (char) buf.get();
+                        if (ch != '\n') {
+                            // only the reply type matters; don't keep whole state lines
+                            if (c.line.length() < 64) c.line.append(ch);
+                            continue;
+                        }
+                        String head = c.line.toString();
+                        c.line.setLength(0);
+                        if (!c.welcomed) {
+                            c.welcomed = true;
+                            welcomed.incrementAndGet();
+                        }
+                        long sent = c.sentAt;
+                        if (sent != 0 && head.contains("\"error\"")) {
+                            int i = recorded.getAndIncrement();
+                            if (i < latencies.length) latencies[i] = System.nanoTime() - sent;
+                            c.sentAt = 0;
+                            window.release();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void awaitListening(int port) throws InterruptedException {
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static long micros(long[] sorted, double q) {
+        return sorted[Math.min(sorted.length - 1, (int) (q * sorted.length))] / 1000;
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /** Resident set size in KB from /proc, or -1 where that isn't available. */
+    private static long rssKb() {
+        try {
+            for (String l : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (l.startsWith("VmRSS:")) {
+                    return Long.parseLong(l.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException ignore) {}
+        return -1;
+    }
+}
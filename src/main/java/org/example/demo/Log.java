@@ -0,0 +1,251 @@
+package org.example.demo;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The server's log. A call below the level returns after one comparison. Otherwise the
+ * caller claims a slot in a fixed ring with one CAS, copies the template and its arguments
+ * into the slot's own array and returns; one background thread formats the {@code {}}
+ * placeholders and writes whatever has piled up to the console in one go. So logging never
+ * does I/O or builds a string on a game thread, and never blocks: when the writer falls a
+ * whole ring behind, new lines are dropped and counted instead. Every method has fixed
+ * arity, so a call makes no array; the only allocation is boxing a number outside the
+ * {@code Integer} cache. Arguments are turned into text later, on the writer thread, so
+ * pass values that no longer change (ids, numbers, messages). The writer sleeps while the
+ * ring is empty and the next line wakes it.
+ * <pre>
+ * Log.info("Player {} created.", id);
+ * Log.event(Level.DEBUG, "steal", "farm", id, "row", row, "col", col, "amount", amount);
+ * // 2025-11-02T10:15:30.123Z DEBUG [worker-3] steal farm=7 row=1 col=2 amount=4
+ * </pre>
+ */
+final class Log {
+    enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int CAPACITY = 8192; // a power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final int BATCH_CHARS = 64 * 1024;
+
+    /** One line waiting to be written; reused round after round, arguments included. */
+    private static final class Slot {
+        // the sequence this slot was last filled for: the writer may read it once this is set
+        volatile long published = -1;
+        long seq;
+        long at;
+        Level level;
+        String thread;
+        String text;
+        boolean fields; // args are key/value pairs to append, not placeholder values
+        final Object[] args = new Object[12]; // up to 6 key/value pairs
+        int argc;
+        Throwable error;
+    }
+
+    private static final Slot[] ring = new Slot[CAPACITY];
+    private static final AtomicLong claimed = new AtomicLong();
+    // next sequence the writer reads; every slot before it is free again
+    private static volatile long written;
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile Level threshold = Level.INFO;
+    // set by the writer before it parks on an empty ring; the producer that sees it wakes it
+    private static volatile boolean idle;
+    private static final Thread writer = new Thread(Log::drain, "log-writer");
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) ring[i] = new Slot();
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private Log() {}
+
+    static void setLevel(Level level) {
+        threshold = level;
+    }
+
+    static boolean enabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    static void debug(String text, Object a) {
+        if (enabled(Level.DEBUG)) put(Level.DEBUG, text, 1, a, null, null, null);
+    }
+
+    static void info(String text, Object a) {
+        if (enabled(Level.INFO)) put(Level.INFO, text, 1, a, null, null, null);
+    }
+
+    static void info(String text, Object a, Object b) {
+        if (enabled(Level.INFO)) put(Level.INFO, text, 2, a, b, null, null);
+    }
+
+    static void info(String text, Object a, Object b, Object c) {
+        if (enabled(Level.INFO)) put(Level.INFO, text, 3, a, b, c, null);
+    }
+
+    static void warn(String text, Object a) {
+        if (enabled(Level.WARN)) put(Level.WARN, text, 1, a, null, null, null);
+    }
+
+    static void warn(String text, Object a, Object b) {
+        if (enabled(Level.WARN)) put(Level.WARN, text, 2, a, b, null, null);
+    }
+
+    /** Logs {@code error} with its stack trace, formatted on the writer thread. */
+    static void error(String text, Throwable error) {
+        if (enabled(Level.ERROR)) put(Level.ERROR, text, 0, null, null, null, error);
+    }
+
+    // structured lines: name then key=value for each pair; one overload per pair count, no varargs
+
+    static void event(Level level, String name, String k1, Object v1) {
+        if (enabled(level)) event(level, name, 2, k1, v1, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    static void event(Level level, String name, String k1, Object v1, String k2, Object v2) {
+        if (enabled(level)) event(level, name, 4, k1, v1, k2, v2, null, null, null, null, null, null, null, null);
+    }
+
+    static void event(Level level, String name, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        if (enabled(level)) event(level, name, 6, k1, v1, k2, v2, k3, v3, null, null, null, null, null, null);
+    }
+
+    static void event(Level level, String name, String k1, Object v1, String k2, Object v2, String k3, Object v3,
+                      String k4, Object v4) {
+        if (enabled(level)) event(level, name, 8, k1, v1, k2, v2, k3, v3, k4, v4, null, null, null, null);
+    }
+
+    static void event(Level level, String name, String k1, Object v1, String k2, Object v2, String k3, Object v3,
+                      String k4, Object v4, String k5, Object v5) {
+        if (enabled(level)) event(level, name, 10, k1, v1, k2, v2, k3, v3, k4, v4, k5, v5, null, null);
+    }
+
+    static void event(Level level, String name, String k1, Object v1, String k2, Object v2, String k3, Object v3,
+                      String k4, Object v4, String k5, Object v5, String k6, Object v6) {
+        if (enabled(level)) event(level, name, 12, k1, v1, k2, v2, k3, v3, k4, v4, k5, v5, k6, v6);
+    }
+
+    /** Lines lost to a full ring since startup. */
+    static long dropped() {
+        return dropped.sum();
+    }
+
+    private static void put(Level level, String text, int argc, Object a, Object b, Object c, Throwable error) {
+        Slot s = claim(level, text, false, argc);
+        if (s == null) return;
+        Object[] o = s.args;
+        o[0] = a;
+        o[1] = b;
+        o[2] = c;
+        s.error = error;
+        publish(s);
+    }
+
+    private static void event(Level level, String name, int argc, Object k1, Object v1, Object k2, Object v2,
+                              Object k3, Object v3, Object k4, Object v4, Object k5, Object v5, Object k6, Object v6) {
+        Slot s = claim(level, name, true, argc);
+        if (s == null) return;
+        Object[] o = s.args;
+        o[0] = k1; o[1] = v1; o[2] = k2; o[3] = v2; o[4] = k3; o[5] = v3;
+        o[6] = k4; o[7] = v4; o[8] = k5; o[9] = v5; o[10] = k6; o[11] = v6;
+        publish(s);
+    }
+
+    /** @return the slot this line may fill, or null if the ring is full and the line was dropped */
+    private static Slot claim(Level level, String text, boolean fields, int argc) {
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - written >= CAPACITY) {
+                dropped.increment();
+                return null;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+        Slot s = ring[(int) seq & MASK];
+        s.seq = seq;
+        s.at = System.currentTimeMillis();
+        s.level = level;
+        s.thread = Thread.currentThread().getName();
+        s.text = text;
+        s.fields = fields;
+        s.argc = argc;
+        return s;
+    }
+
+    private static void publish(Slot s) {
+        s.published = s.seq;
+        // volatile write then volatile read, against the writer's idle = true then re-check:
+        // either it sees this line or this sees it idle, so a line never waits for the next one
+        if (idle) {
+            idle = false;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /** Writer thread: formats every published slot in order, one console write per batch. */
+    private static void drain() {
+        PrintStream out = System.out;
+        StringBuilder batch = new StringBuilder();
+        long next = 0;
+        while (true) {
+            Slot s = ring[(int) next & MASK];
+            if (s.published != next) {
+                // nothing new, or the next slot is still being filled: its publish wakes us
+                write(out, batch);
+                idle = true;
+                if (s.published != next) LockSupport.park();
+                idle = false;
+                continue;
+            }
+            try {
+                format(batch, s);
+            } catch (RuntimeException e) {
+                batch.append("[Log] bad line: ").append(e).append('\n');
+            }
+            Arrays.fill(s.args, null);
+            s.error = null;
+            written = ++next;
+            if (batch.length() >= BATCH_CHARS) write(out, batch);
+        }
+    }
+
+    private static void write(PrintStream out, StringBuilder batch) {
+        if (batch.isEmpty()) return;
+        out.print(batch);
+        out.flush();
+        batch.setLength(0);
+    }
+
+    private static void format(StringBuilder out, Slot s) {
+        out.append(Instant.ofEpochMilli(s.at)).append(' ').append(s.level)
+                .append(s.level.name().length() == 4 ? "  [" : " [").append(s.thread).append("] ");
+        if (s.fields) {
+            out.append(s.text);
+            for (int i = 0; i + 1 < s.argc; i += 2) {
+                out.append(' ').append(s.args[i]).append('=').append(s.args[i + 1]);
+            }
+        } else {
+            int from = 0;
+            for (int i = 0; i < s.argc; i++) {
+                int at = s.text.indexOf("{}", from);
+                if (at < 0) break;
+                out.append(s.text, from, at).append(s.args[i]);
+                from = at + 2;
+            }
+            out.append(s.text, from, s.text.length());
+        }
+        out.append('\n');
+        if (s.error != null) {
+            StringWriter trace = new StringWriter();
+            s.error.printStackTrace(new PrintWriter(trace));
+            out.append(trace);
+        }
+    }
+}
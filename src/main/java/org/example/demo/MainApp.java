@@ -21,7 +21,9 @@ public class MainApp extends Application {
         stage.setTitle("QQ Farm");
         stage.setScene(scene);
 
-        controller.init("localhost", 5050);
+        // --proto=bin asks the server for binary state frames
+        boolean binary = "bin".equals(getParameters().getNamed().get("proto"));
+        controller.init("localhost", 5050, binary);
 
         stage.setOnCloseRequest(e -> controller.shutdown());
         stage.show();
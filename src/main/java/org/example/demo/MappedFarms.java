@@ -0,0 +1,204 @@
+package org.example.demo;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Every farm as a fixed-size record off the heap, for {@code --farm-storage=offheap}. With
+ * {@code --data} the records live in the memory-mapped file {@code farms.dat}, otherwise in
+ * native memory. Player ids are the numbers handed out by the server, so farm {@code n} is
+ * record {@code n-1} and lookup is arithmetic, not a map.
+ * <p>
+ * A {@link Farm} built by {@link #open} is only a view of its record: any number of views
+ * of one farm may exist and they all see the same memory, so the server keeps views of
+ * active farms only and drops the rest. Heap use follows online players, not all players.
+ * The record size follows the {@link FarmSpec}; a file only opens with the size it was made with.
+ * <pre>
+ *  header  [magic i32][plots i32][farms i64][cols i32, 0 = 4], padded to 64 bytes
+ *  record  [version i64][coins i32][pad i32][plot words i64 x plots]
+ * </pre>
+ */
+final class MappedFarms implements AutoCloseable {
+    private static final int MAGIC = 0x51464D32; // "QFM2"
+    private static final long HEADER = 64;
+    private static final long VERSION = 0;
+    private static final long COINS = 8;
+    private static final long PLOTS = 16;
+    // about this many bytes per mapped chunk; chunks are added as players register
+    private static final long CHUNK_BYTES = 144L << 20;
+
+    private static final VarHandle LONG = ValueLayout.JAVA_LONG.varHandle();
+    private static final VarHandle INT = ValueLayout.JAVA_INT.varHandle();
+
+    private final FarmSpec spec;
+    private final long record;
+    // farms per chunk: 2^20 for 4x4 farms, fewer for bigger ones
+    private final int chunkFarms;
+    private final Arena arena = Arena.ofShared();
+    private final FileChannel file; // null: native memory only, gone on exit
+    private final MemorySegment header;
+    private volatile MemorySegment[] chunks = new MemorySegment[0];
+    private final ReentrantLock growLock = new ReentrantLock();
+    private volatile long count;
+    private ScheduledExecutorService syncer;
+
+    /** @param dir where {@code farms.dat} is kept, or null to hold farms in memory only */
+    MappedFarms(Path dir, ServerConfig config) throws IOException {
+        this.spec = config.getFarmSpec();
+        this.record = PLOTS + 8L * spec.plots();
+        this.chunkFarms = (int) Long.highestOneBit(Math.max(1, CHUNK_BYTES / record));
+        if (dir != null) {
+            Files.createDirectories(dir);
+            file = FileChannel.open(dir.resolve("farms.dat"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            header = file.map(FileChannel.MapMode.READ_WRITE, 0, HEADER, arena);
+        } else {
+            file = null;
+            header = arena.allocate(HEADER, 8);
+        }
+        int magic = (int) INT.getVolatile(header, 0L);
+        if (magic == 0) {
+            INT.setVolatile(header, 4L, spec.plots());
+            INT.setVolatile(header, 16L, spec.cols());
+            INT.setVolatile(header, 0L, MAGIC);
+        } else {
+            int plots = (int) INT.getVolatile(header, 4L), cols = (int) INT.getVolatile(header, 16L);
+            if (cols == 0) cols = 4; // written before farm sizes were configurable
+            if (magic != MAGIC || plots != spec.plots() || cols != spec.cols()) {
+                throw new IOException(STR."farms.dat was written for a different farm layout (\{plots / cols}x\{cols} farms)");
+            }
+        }
+        count = (long) LONG.getVolatile(header, 8L);
+        ensureChunks(count);
+        if (file != null) {
+            // a killed process loses nothing (the pages are the kernel's); this bounds a power cut
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "farms-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            long every = config.getSnapshotSecs();
+            syncer.scheduleWithFixedDelay(this::force, every, every, TimeUnit.SECONDS);
+        }
+        Log.info("[MappedFarms] {} farms, {} chunks of {} MB" + (file == null ? " (memory only)" : ""),
+                count, chunks.length, chunkFarms * record >> 20);
+    }
+
+    /** Number of farms ever created; ids run from 1 to this. */
+    long count() {
+        return count;
+    }
+
+    /** @return a view of farm {@code id}, or null if there is no such farm */
+    Farm open(String id, boolean lazyGrowth) {
+        long n;
+        try {
+            n = Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (n < 1 || n > count) return null;
+        return view(id, n - 1, lazyGrowth);
+    }
+
+    /** Creates farm {@code id} (the next server id) with the starting coins. Callers serialize. */
+    Farm create(long id, boolean lazyGrowth) throws IOException {
+        growLock.lock();
+        try {
+            if (id != count + 1) throw new IllegalStateException("farm ids must be dense: " + id + " after " + count);
+            ensureChunks(id);
+            MemorySegment rec = record(id - 1);
+            rec.fill((byte) 0);
+            INT.setVolatile(rec, COINS, spec.startCoins());
+            count = id;
+            LONG.setVolatile(header, 8L, id);
+        } finally {
+            growLock.unlock();
+        }
+        return view(String.valueOf(id), id - 1, lazyGrowth);
+    }
+
+    private Farm view(String id, long slot, boolean lazyGrowth) {
+        return new Farm(id, spec, lazyGrowth, Farm.Journal.NONE, new Record(record(slot)));
+    }
+
+    private MemorySegment record(long slot) {
+        return chunks[(int) (slot / chunkFarms)].asSlice(slot % chunkFarms * record, record);
+    }
+
+    /** Maps (or allocates) chunks until {@code farms} records fit. */
+    private void ensureChunks(long farms) throws IOException {
+        int needed = (int) ((farms + chunkFarms - 1) / chunkFarms);
+        if (needed <= chunks.length) return;
+        growLock.lock();
+        try {
+            MemorySegment[] grown = Arrays.copyOf(chunks, Math.max(needed, chunks.length));
+            for (int k = chunks.length; k < needed; k++) {
+                long size = chunkFarms * record;
+                grown[k] = file != null
+                        ? file.map(FileChannel.MapMode.READ_WRITE, HEADER + k * size, size, arena)
+                        : arena.allocate(size, 8);
+            }
+            chunks = grown;
+        } finally {
+            growLock.unlock();
+        }
+    }
+
+    private void force() {
+        try {
+            header.force();
+            for (MemorySegment chunk : chunks) chunk.force();
+        } catch (Throwable t) {
+            Log.error("[MappedFarms] force failed", t);
+        }
+    }
+
+    @Override public void close() {
+        if (syncer != null) {
+            syncer.shutdownNow();
+            force();
+        }
+        try {
+            if (file != null) file.close();
+        } catch (IOException e) {
+            Log.warn("[MappedFarms] close failed: {}", e.getMessage());
+        }
+        // the arena stays open: connections may still touch views while the JVM exits
+    }
+
+    /** One farm's record; every access is a volatile read, CAS or atomic add on the segment. */
+    private static final class Record implements Farm.Cells {
+        private final MemorySegment seg;
+
+        Record(MemorySegment seg) {
+            this.seg = seg;
+        }
+
+        private static long at(int index) {
+            return PLOTS + 8L * index;
+        }
+
+        @Override public long plot(int index) { return (long) LONG.getVolatile(seg, at(index)); }
+        @Override public boolean casPlot(int index, long expect, long update) { return LONG.compareAndSet(seg, at(index), expect, update); }
+        @Override public void setPlot(int index, long word) { LONG.setVolatile(seg, at(index), word); }
+        @Override public int coins() { return (int) INT.getVolatile(seg, COINS); }
+        @Override public boolean casCoins(int expect, int update) { return INT.compareAndSet(seg, COINS, expect, update); }
+        @Override public void addCoins(int amount) { INT.getAndAdd(seg, COINS, amount); }
+        @Override public void setCoins(int amount) { INT.setVolatile(seg, COINS, amount); }
+        @Override public long version() { return (long) LONG.getVolatile(seg, VERSION); }
+        @Override public long bumpVersion() { return (long) LONG.getAndAdd(seg, VERSION, 1L) + 1; }
+    }
+}
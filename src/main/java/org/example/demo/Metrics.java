@@ -0,0 +1,122 @@
+package org.example.demo;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The server's counters, histograms and gauges. Instruments are fields created up front, so
+ * recording is one {@link LongAdder} add, or for a {@link Histogram} a bucket increment and a
+ * {@code LongAdder} add, with no lookup, no lock and no shared word every thread writes.
+ * {@link #render} writes them all as plain text in the Prometheus exposition format;
+ * {@link #serve} makes that available at {@code /metrics} on localhost.
+ */
+final class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] OPS = {"login", "plant", "harvest", "steal", "batch", "view", "players", "resync", "quit"};
+
+    // name{labels} -> LongAdder, Histogram or LongSupplier (gauge)
+    private final Map<String, Object> all = new ConcurrentHashMap<>();
+
+    private final Map<String, Histogram> opLatency = new TreeMap<>();
+    private final Histogram otherOp = histogram("op_latency_ns{op=\"other\"}");
+    final LongAdder opErrors = counter("op_errors_total");
+    /** Only acquisitions that had to wait: {@code count} is how often a stripe was contended. */
+    final Histogram lockWait = histogram("stripe_lock_wait_ns");
+    /** Per shard tick, see {@link TickShards}; an overrun is a tick longer than its period. */
+    final Histogram tickDuration = histogram("tick_duration_ns");
+    final Histogram tickDirty = histogram("tick_dirty_farms");
+    final LongAdder tickOverruns = counter("tick_overruns_total");
+    final Histogram fanout = histogram("broadcast_fanout");
+    /** Bytes waiting in a connection's outbound queue, sampled whenever a message is queued. */
+    final Histogram outboundDepth = histogram("outbound_queue_bytes");
+    final LongAdder outboundRefused = counter("outbound_refused_total");
+    final LongAdder bytesWritten = counter("bytes_written_total");
+
+    Metrics() {
+        for (String op : OPS) opLatency.put(op, histogram(STR."op_latency_ns{op=\"\{op}\"}"));
+        gauge("log_dropped_total", Log::dropped);
+    }
+
+    /** Time from reading a request to having answered it; unknown ops share one histogram. */
+    Histogram op(String op) {
+        Histogram h = op == null ? null : opLatency.get(op);
+        return h != null ? h : otherOp;
+    }
+
+    LongAdder counter(String name) {
+        LongAdder c = new LongAdder();
+        all.put(name, c);
+        return c;
+    }
+
+    Histogram histogram(String name) {
+        Histogram h = new Histogram();
+        all.put(name, h);
+        return h;
+    }
+
+    /** A value read when the metrics are rendered, e.g. the number of players online. */
+    void gauge(String name, LongSupplier value) {
+        all.put(name, value);
+    }
+
+    /** One line per counter and gauge; per histogram its count, max and {@link #QUANTILES}. */
+    String render() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Object> e : new TreeMap<>(all).entrySet()) {
+            String name = e.getKey();
+            switch (e.getValue()) {
+                case LongAdder c -> line(out, name, "", c.sum());
+                case LongSupplier g -> line(out, name, "", g.getAsLong());
+                case Histogram h -> {
+                    for (double q : QUANTILES) line(out, name, STR."quantile=\"\{q}\"", h.percentile(q));
+                    line(out, suffixed(name, "_max"), "", h.max());
+                    line(out, suffixed(name, "_count"), "", h.count());
+                }
+                default -> throw new IllegalStateException(name);
+            }
+        }
+        return out.toString();
+    }
+
+    private static String suffixed(String name, String suffix) {
+        int brace = name.indexOf('{');
+        return brace < 0 ? name + suffix : name.substring(0, brace) + suffix + name.substring(brace);
+    }
+
+    private static void line(StringBuilder out, String name, String label, long value) {
+        if (label.isEmpty()) {
+            out.append(name);
+        } else if (name.endsWith("}")) {
+            out.append(name, 0, name.length() - 1).append(',').append(label).append('}');
+        } else {
+            out.append(name).append('{').append(label).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /** Serves {@link #render} at {@code http://localhost:port/metrics} on its own thread. */
+    void serve(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+        Log.info("[Metrics] http://localhost:{}/metrics", port);
+    }
+}
@@ -0,0 +1,338 @@
+package org.example.demo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking connection engine: the accept loop hands channels to a few selector
+ * threads that do socket I/O and newline framing, and complete request lines run on a
+ * worker pool through the same {@link ClientHandler} protocol as the thread core.
+ * Work for one connection is serialized, so a handler never runs on two workers at once.
+ */
+class NioServer {
+    private static final int MAX_LINE = 64 * 1024;
+    private static final int READ_BUFFER = 4096;
+    // tasks one connection may run per turn, so a flooding client can't hog a worker
+    private static final int TASKS_PER_TURN = 64;
+    // request lines one connection may have waiting for a worker; past this the selector
+    // stops reading it until the worker has caught up, so a flood can't fill the heap
+    private static final int MAX_QUEUED_LINES = 256;
+
+    private final Server server;
+    private final ServerConfig config;
+    private final Reactor[] reactors;
+    private final ExecutorService workers;
+
+    NioServer(Server server, ServerConfig config) throws IOException {
+        this.server = server;
+        this.config = config;
+        this.reactors = new Reactor[config.getSelectorThreads()];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(Selector.open());
+            Thread t = new Thread(reactors[i], "nio-selector-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        AtomicInteger workerNo = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(config.getWorkerThreads(), r -> {
+            Thread t = new Thread(r, "nio-worker-" + workerNo.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Accepts connections forever on the calling thread. */
+    void serve() throws IOException {
+        try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+            ssc.bind(new InetSocketAddress(config.getPort()));
+            int next = 0;
+            while (true) {
+                SocketChannel ch = ssc.accept();
+                Log.info("[Server] new connection: {}", ch.getRemoteAddress());
+                ch.configureBlocking(false);
+                ch.socket().setTcpNoDelay(true);
+                reactors[next++ % reactors.length].register(ch);
+            }
+        }
+    }
+
+    /** One selector thread serving a subset of the connections. */
+    private class Reactor implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+        Reactor(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel ch) {
+            pending.add(ch);
+            selector.wakeup();
+        }
+
+        @Override public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    SocketChannel ch;
+                    while ((ch = pending.poll()) != null) {
+                        Connection conn = new Connection(this, ch);
+                        conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection conn = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            conn.close();
+                            continue;
+                        }
+                        if (key.isReadable()) conn.onReadable();
+                        if (key.isValid() && key.isWritable()) conn.onWritable();
+                    }
+                } catch (IOException | CancelledKeyException e) {
+                    Log.warn("[NioServer] selector error: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Per-channel state: read framing, outbound buffers and the serialized task queue. */
+    private class Connection implements Transport {
+        private final Reactor reactor;
+        private final SocketChannel ch;
+        private SelectionKey key;
+        private final ClientHandler handler;
+
+        private final ByteBuffer readBuf = ByteBuffer.allocate(READ_BUFFER);
+        private byte[] line = new byte[256];
+        private int lineLen;
+
+        private final OutboundQueue.Staging staged = new OutboundQueue.Staging();
+        private final OutboundQueue outbound = new OutboundQueue(config.getOutboundLimitBytes(), server.metrics());
+        // the socket refused part of the queue; the selector finishes it on OP_WRITE
+        private volatile boolean waitingWritable;
+        // too many lines queued: OP_READ is off until drainTasks works them off; guarded by outbound
+        private boolean readPaused;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queuedLines = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean pushQueued = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Connection(Reactor reactor, SocketChannel ch) {
+            this.reactor = reactor;
+            this.ch = ch;
+            this.handler = new ClientHandler(server, this);
+        }
+
+        // ---- selector thread ----
+
+        void onReadable() {
+            int n;
+            try {
+                n = ch.read(readBuf);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            readBuf.flip();
+            while (readBuf.hasRemaining()) {
+                byte b = readBuf.get();
+                if (b == '\n') {
+                    int len = lineLen > 0 && line[lineLen - 1] == '\r' ? lineLen - 1 : lineLen;
+                    String s = new String(line, 0, len, StandardCharsets.UTF_8);
+                    lineLen = 0;
+                    queuedLines.incrementAndGet();
+                    submit(() -> {
+                        queuedLines.decrementAndGet();
+                        handleLine(s);
+                    });
+                } else {
+                    if (lineLen == MAX_LINE) {
+                        Log.warn("[NioServer] line too long, closing {}", ch);
+                        close();
+                        return;
+                    }
+                    if (lineLen == line.length) {
+                        line = Arrays.copyOf(line, Math.min(MAX_LINE, line.length * 2));
+                    }
+                    line[lineLen++] = b;
+                }
+            }
+            readBuf.clear();
+            if (queuedLines.get() >= MAX_QUEUED_LINES) {
+                synchronized (outbound) {
+                    // counted again under the lock, so a drain that just finished is not missed
+                    if (queuedLines.get() >= MAX_QUEUED_LINES && !readPaused) {
+                        readPaused = true;
+                        updateInterest();
+                    }
+                }
+            }
+        }
+
+        void onWritable() {
+            synchronized (outbound) {
+                try {
+                    if (!outbound.writeTo(ch)) return;
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+                waitingWritable = false;
+                updateInterest();
+            }
+            // caught up: send whatever state was held back meanwhile
+            wakeup();
+        }
+
+        // ---- worker threads ----
+
+        private void handleLine(String s) {
+            try {
+                if (!handler.onLine(s)) {
+                    close();
+                    return;
+                }
+                handler.pushIfDirty();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void submit(Runnable task) {
+            if (closed.get()) return;
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                workers.execute(this::drainTasks);
+            }
+        }
+
+        private void drainTasks() {
+            Runnable task;
+            for (int n = 0; n < TASKS_PER_TURN && (task = tasks.poll()) != null; n++) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    Log.error("[NioServer] task failed", t);
+                }
+            }
+            // everything these tasks produced goes out in one gathering write
+            send();
+            resumeReading();
+            scheduled.set(false);
+            if (!tasks.isEmpty()) schedule();
+        }
+
+        private void send() {
+            synchronized (outbound) {
+                if (waitingWritable || closed.get()) return; // the selector is on it
+                try {
+                    if (outbound.writeTo(ch)) return;
+                    waitingWritable = true;
+                    updateInterest();
+                } catch (IOException | CancelledKeyException e) {
+                    close();
+                    return;
+                }
+            }
+            reactor.selector.wakeup();
+        }
+
+        /** Turns reading back on once the worker has worked off half the cap. */
+        private void resumeReading() {
+            if (queuedLines.get() >= MAX_QUEUED_LINES / 2) return;
+            synchronized (outbound) {
+                if (!readPaused || closed.get()) return;
+                readPaused = false;
+                try {
+                    updateInterest();
+                } catch (CancelledKeyException e) {
+                    return;
+                }
+            }
+            reactor.selector.wakeup();
+        }
+
+        /** Caller holds the outbound lock. */
+        private void updateInterest() {
+            key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (waitingWritable ? SelectionKey.OP_WRITE : 0));
+        }
+
+        @Override public void write(byte[] buf, int off, int len) {
+            staged.write(buf, off, len);
+        }
+
+        @Override public void write(ByteBuffer shared) {
+            staged.share(shared);
+        }
+
+        @Override public boolean flush() {
+            return queue(false);
+        }
+
+        @Override public boolean reply() {
+            return queue(true);
+        }
+
+        private boolean queue(boolean reply) {
+            if (staged.isEmpty() || closed.get()) return true;
+            ByteBuffer[] msg = staged.take();
+            if (!outbound.offer(msg, reply)) {
+                if (reply || config.getSlowClient() == ServerConfig.SlowClient.DISCONNECT) {
+                    Log.warn("[NioServer] slow client, disconnecting: {}", ch);
+                    close();
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override public boolean backlogged() {
+            return waitingWritable;
+        }
+
+        @Override public void wakeup() {
+            if (pushQueued.compareAndSet(false, true)) {
+                submit(() -> {
+                    pushQueued.set(false);
+                    try {
+                        handler.pushIfDirty();
+                    } catch (IOException e) {
+                        close();
+                    }
+                });
+            }
+        }
+
+        @Override public void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            if (key != null) key.cancel();
+            try {
+                ch.close();
+            } catch (IOException ignore) {}
+            tasks.add(handler::onClose);
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.example.demo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bytes accepted for one connection but not yet written to its socket. Bounded, so a
+ * client that stops reading cannot grow server memory: {@link #offer} refuses a message
+ * once {@code limit} bytes are waiting, and the transport applies the slow-client policy.
+ * Answers to requests may fill up to twice the limit: a dropped push is made good by a
+ * later full state, but a dropped answer would leave its request waiting for good.
+ * Queued messages go out together in one gathering write or one stream flush. A message
+ * may reference shared read-only buffers (a {@link FarmFrame}), which are queued as-is.
+ */
+final class OutboundQueue {
+    private static final int REPLY_HEADROOM = 2;
+
+    private final int limit;
+    private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+    private int bytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Metrics metrics;
+
+    OutboundQueue(int limit, Metrics metrics) {
+        this.limit = limit;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Builds one message from copied bytes and shared buffers, in write order.
+     * Not thread-safe; each transport guards its own.
+     */
+    static final class Staging {
+        private static final int KEEP_BYTES = 4096;
+        private ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        private final List<ByteBuffer> parts = new ArrayList<>();
+
+        void write(byte[] buf, int off, int len) {
+            copied.write(buf, off, len);
+        }
+
+        /** Adds a buffer by reference; it must not change afterwards. */
+        void share(ByteBuffer buf) {
+            cut();
+            parts.add(buf.duplicate());
+        }
+
+        boolean isEmpty() {
+            return parts.isEmpty() && copied.size() == 0;
+        }
+
+        /** @return the message so far, and starts a new one */
+        ByteBuffer[] take() {
+            cut();
+            ByteBuffer[] msg = parts.toArray(ByteBuffer[]::new);
+            parts.clear();
+            return msg;
+        }
+
+        private void cut() {
+            if (copied.size() > 0) {
+                parts.add(ByteBuffer.wrap(copied.toByteArray()));
+                // reset() keeps the capacity: one large message would pin it for the connection's life
+                if (copied.size() > KEEP_BYTES) copied = new ByteArrayOutputStream();
+                else copied.reset();
+            }
+        }
+    }
+
+    /**
+     * Queues one complete message; the queue owns the buffers afterwards. A message is always
+     * taken when the queue is empty, so a single frame larger than the limit still goes out.
+     * @param reply the answer to a request, allowed past the limit up to the reply headroom
+     * @return false if the queue is full and the message was not taken
+     */
+    boolean offer(ByteBuffer[] msg, boolean reply) {
+        int len = 0;
+        for (ByteBuffer b : msg) len += b.remaining();
+        int depth;
+        lock.lock();
+        try {
+            if (bytes > 0 && bytes + len > (reply ? limit * REPLY_HEADROOM : limit)) {
+                metrics.outboundRefused.increment();
+                return false;
+            }
+            for (ByteBuffer b : msg) chunks.add(b);
+            depth = bytes += len;
+        } finally {
+            lock.unlock();
+        }
+        metrics.outboundDepth.record(depth);
+        return true;
+    }
+
+    int pendingBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Non-blocking: writes as much as the channel takes in one gathering write. @return true if now empty */
+    boolean writeTo(GatheringByteChannel ch) throws IOException {
+        lock.lock();
+        try {
+            if (chunks.isEmpty()) return true;
+            ByteBuffer[] bufs = chunks.toArray(ByteBuffer[]::new);
+            long n = ch.write(bufs);
+            bytes -= (int) n;
+            metrics.bytesWritten.add(n);
+            while (!chunks.isEmpty() && !chunks.peek().hasRemaining()) chunks.poll();
+            return chunks.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocking: writes everything queued so far to {@code out} with a single flush. The bytes
+     * count as pending until the flush returns; more can be offered meanwhile.
+     */
+    void drainTo(OutputStream out) throws IOException {
+        List<ByteBuffer> batch;
+        lock.lock();
+        try {
+            if (chunks.isEmpty()) return;
+            batch = new ArrayList<>(chunks);
+            chunks.clear();
+        } finally {
+            lock.unlock();
+        }
+        // shared buffers are read-only, so go through a channel rather than array()
+        WritableByteChannel wc = Channels.newChannel(out);
+        int written = 0;
+        for (ByteBuffer b : batch) {
+            written += b.remaining();
+            while (b.hasRemaining()) wc.write(b);
+        }
+        out.flush();
+        metrics.bytesWritten.add(written);
+        lock.lock();
+        try {
+            bytes -= written;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
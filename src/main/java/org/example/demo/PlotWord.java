@@ -0,0 +1,66 @@
+package org.example.demo;
+
+/**
+ * Packs one plot into a {@code long}:
+ * <pre>
+ *  bits  0..1   state ordinal ({@link PlotState})
+ *  bits  2..7   crop id ({@link FarmSpec.Crop#id})
+ *  bits  8..23  remaining yield
+ *  bits 24..63  plantedAt, millis since {@link #EPOCH} (about 34 years of range)
+ * </pre>
+ * A zero word is an empty plot.
+ */
+final class PlotWord {
+    /** 2024-01-01T00:00:00Z; planted timestamps are stored relative to this. */
+    static final long EPOCH = 1_704_067_200_000L;
+
+    static final long EMPTY = 0L;
+
+    private static final PlotState[] STATES = PlotState.values();
+    private static final int CROP_SHIFT = 2;
+    private static final long CROP_MASK = 0x3FL;
+    private static final int YIELD_SHIFT = 8;
+    private static final long YIELD_MASK = 0xFFFFL;
+    private static final int TIME_SHIFT = 24;
+    private static final long TIME_MASK = (1L << 40) - 1;
+
+    private PlotWord() {}
+
+    static long pack(PlotState state, int crop, int yield, long plantedAtMillis) {
+        long time = plantedAtMillis == 0 ? 0 : (plantedAtMillis - EPOCH) & TIME_MASK;
+        return state.ordinal()
+                | ((long) crop & CROP_MASK) << CROP_SHIFT
+                | ((long) yield & YIELD_MASK) << YIELD_SHIFT
+                | time << TIME_SHIFT;
+    }
+
+    static int stateOrdinal(long word) {
+        return (int) (word & 3);
+    }
+
+    static PlotState state(long word) {
+        return STATES[stateOrdinal(word)];
+    }
+
+    static int crop(long word) {
+        return (int) (word >>> CROP_SHIFT & CROP_MASK);
+    }
+
+    static int yield(long word) {
+        return (int) (word >>> YIELD_SHIFT & YIELD_MASK);
+    }
+
+    /** @return epoch millis, or 0 if the plot has no planted time */
+    static long plantedAt(long word) {
+        long time = word >>> TIME_SHIFT;
+        return time == 0 ? 0 : time + EPOCH;
+    }
+
+    static long withState(long word, PlotState state) {
+        return (word & ~3L) | state.ordinal();
+    }
+
+    static long withYield(long word, int yield) {
+        return (word & ~(YIELD_MASK << YIELD_SHIFT)) | ((long) yield & YIELD_MASK) << YIELD_SHIFT;
+    }
+}
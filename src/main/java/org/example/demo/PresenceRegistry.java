@@ -0,0 +1,383 @@
+package org.example.demo;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Who is online and whose farm they are looking at: player id -> viewed farm id, or
+ * {@link #OFFLINE}. Logins, logouts and view changes are recorded with {@link #update}
+ * from any thread and coalesced for {@code windowMs}; each flush publishes the list as one
+ * immutable {@link Table} shared by every connection, then hands only the changed entries
+ * to the connections whose subscription covers them. A connection keeps no copy of the
+ * list, only what changed since its last push: a full state is read from the current
+ * table, and changes up to that table's version are not sent again.
+ * <p>
+ * A table is split into pages of slots and buckets of its id index. A flush copies only
+ * the pages and buckets it changes and shares the rest with the table before it, so it
+ * costs O(changed entries), not O(players). Players who logged out stay listed as
+ * OFFLINE, so their farms can still be visited, until {@link #OFFLINE_KEEP} others have
+ * left after them; then they drop off the list and their slot is given to the next newcomer.
+ * <p>
+ * Changes to the table, subscription changes and deliveries run on one presence thread,
+ * so a table is published before any connection hears of its changes.
+ */
+final class PresenceRegistry {
+    static final String OFFLINE = "OFFLINE";
+    // logged-out players kept in the list; older ones are pruned
+    static final int OFFLINE_KEEP = 1_000;
+    private static final int PAGE = 256;     // slots per page
+    private static final int BUCKETS = 1024; // id index buckets
+
+    /** Which players a connection wants in its list. */
+    record Filter(Mode mode, int offset, int limit, Set<String> friends) {
+        enum Mode { ALL, PAGE, FRIENDS }
+
+        static final Filter ALL = new Filter(Mode.ALL, 0, 0, Set.of());
+
+        static Filter page(int offset, int limit) {
+            if (offset < 0 || limit <= 0) throw new IllegalArgumentException("Bad page");
+            return new Filter(Mode.PAGE, offset, limit, Set.of());
+        }
+
+        static Filter friends(Collection<String> ids) {
+            return new Filter(Mode.FRIENDS, 0, 0, Set.copyOf(ids));
+        }
+
+        /** @param slot the player's place in the list; pages are slices of slots */
+        boolean accepts(String id, int slot, String self) {
+            return switch (mode) {
+                case ALL -> true;
+                case PAGE -> slot >= offset && slot < offset + limit;
+                case FRIENDS -> id.equals(self) || friends.contains(id);
+            };
+        }
+    }
+
+    /** {@link #PAGE} slots: who sits in each and what they view; null ids are free slots. */
+    private record Page(String[] ids, String[] viewing) {
+        static Page empty() {
+            return new Page(new String[PAGE], new String[PAGE]);
+        }
+
+        Page copy() {
+            return new Page(ids.clone(), viewing.clone());
+        }
+    }
+
+    /** Part of the id -> slot index. */
+    private record Bucket(Map<String, Integer> slots) {}
+
+    /**
+     * One version of the whole list, as a read-only map in slot order; never changes once
+     * published. Slot s is entry {@code s % PAGE} of page {@code s / PAGE}.
+     */
+    static final class Table extends AbstractMap<String, String> {
+        static final Table EMPTY = new Table(0, 0, new Page[0], emptyBuckets());
+
+        private final long version;
+        private final int size;
+        private final Page[] pages;
+        private final Bucket[] buckets;
+
+        private Table(long version, int size, Page[] pages, Bucket[] buckets) {
+            this.version = version;
+            this.size = size;
+            this.pages = pages;
+            this.buckets = buckets;
+        }
+
+        private static Bucket[] emptyBuckets() {
+            Bucket[] b = new Bucket[BUCKETS];
+            Arrays.fill(b, new Bucket(Map.of()));
+            return b;
+        }
+
+        long version() {
+            return version;
+        }
+
+        @Override public int size() {
+            return size;
+        }
+
+        @Override public String get(Object id) {
+            Integer slot = id instanceof String s ? buckets[bucket(s)].slots().get(s) : null;
+            return slot == null ? null : pages[slot / PAGE].viewing()[slot % PAGE];
+        }
+
+        @Override public boolean containsKey(Object id) {
+            return get(id) != null;
+        }
+
+        @Override public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override public int size() {
+                    return size;
+                }
+
+                @Override public Iterator<Entry<String, String>> iterator() {
+                    return slice(0, pages.length * PAGE);
+                }
+            };
+        }
+
+        /** The taken slots in [from, to). */
+        private Iterator<Entry<String, String>> slice(int from, int to) {
+            int end = Math.min(to, pages.length * PAGE);
+            return new Iterator<>() {
+                private int slot = advance(from);
+
+                private int advance(int s) {
+                    while (s < end && pages[s / PAGE].ids()[s % PAGE] == null) s++;
+                    return s;
+                }
+
+                @Override public boolean hasNext() {
+                    return slot < end;
+                }
+
+                @Override public Entry<String, String> next() {
+                    if (slot >= end) throw new NoSuchElementException();
+                    Page page = pages[slot / PAGE];
+                    Entry<String, String> e = Map.entry(page.ids()[slot % PAGE], page.viewing()[slot % PAGE]);
+                    slot = advance(slot + 1);
+                    return e;
+                }
+            };
+        }
+
+        /** What {@code filter} shows {@code self}; for ALL the shared table itself, not a copy. */
+        Map<String, String> view(Filter filter, String self) {
+            Map<String, String> visible = new HashMap<>();
+            switch (filter.mode()) {
+                case ALL -> { return this; }
+                case PAGE -> slice(filter.offset(), filter.offset() + filter.limit())
+                        .forEachRemaining(e -> visible.put(e.getKey(), e.getValue()));
+                case FRIENDS -> {
+                    String mine = get(self);
+                    if (mine != null) visible.put(self, mine);
+                    for (String id : filter.friends()) {
+                        String viewing = get(id);
+                        if (viewing != null) visible.put(id, viewing);
+                    }
+                }
+            }
+            return visible;
+        }
+    }
+
+    private static int bucket(String id) {
+        return (id.hashCode() & 0x7fffffff) % BUCKETS;
+    }
+
+    private final long windowMs;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // written by the presence thread only, after each flush that changed something
+    private volatile Table current = Table.EMPTY;
+
+    // presence thread only: the next table. Its arrays, and each page or bucket, are copied
+    // before their first change in a flush, so a published table never sees an edit
+    private long version;
+    private int size;
+    private Page[] pages = Table.EMPTY.pages;
+    private Bucket[] buckets = Table.EMPTY.buckets;
+    private boolean editing;
+    private final Set<Integer> copiedPages = new HashSet<>();
+    private final Set<Integer> copiedBuckets = new HashSet<>();
+    private int slots;                       // slots ever used; free ones are below this
+    private final BitSet free = new BitSet();
+    // logged-out players still listed, the longest gone first
+    private final LinkedHashSet<String> offline = new LinkedHashSet<>();
+    private final Map<ClientHandler, Filter> subscribers = new HashMap<>();
+    private final Set<ClientHandler> everyone = new HashSet<>();
+    private final Set<ClientHandler> paged = new HashSet<>();
+    // friend id -> connections listing that player
+    private final Map<String, Set<ClientHandler>> watchers = new HashMap<>();
+
+    PresenceRegistry(long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    /** Records that {@code id} now views {@code viewing} (or is {@link #OFFLINE}). Any thread. */
+    void update(String id, String viewing) {
+        pending.put(id, viewing);
+        if (flushScheduled.compareAndSet(false, true)) {
+            executor.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** The list as of the last flush; any thread. */
+    Table table() {
+        return current;
+    }
+
+    /** (Re)subscribes a connection; it catches up from the current table, then gets changes. */
+    void subscribe(ClientHandler ch, Filter filter) {
+        executor.execute(() -> {
+            unregister(ch);
+            subscribers.put(ch, filter);
+            switch (filter.mode()) {
+                case ALL -> everyone.add(ch);
+                case PAGE -> paged.add(ch);
+                case FRIENDS -> {
+                    watchers.computeIfAbsent(ch.getPlayerId(), k -> new HashSet<>()).add(ch);
+                    for (String id : filter.friends()) {
+                        watchers.computeIfAbsent(id, k -> new HashSet<>()).add(ch);
+                    }
+                }
+            }
+            ch.subscribed(filter, current);
+        });
+    }
+
+    void unsubscribe(ClientHandler ch) {
+        executor.execute(() -> unregister(ch));
+    }
+
+    private void unregister(ClientHandler ch) {
+        Filter old = subscribers.remove(ch);
+        if (old == null) return;
+        everyone.remove(ch);
+        paged.remove(ch);
+        if (old.mode() == Filter.Mode.FRIENDS) {
+            unwatch(ch.getPlayerId(), ch);
+            for (String id : old.friends()) unwatch(id, ch);
+        }
+    }
+
+    private void unwatch(String id, ClientHandler ch) {
+        Set<ClientHandler> set = watchers.get(id);
+        if (set != null && set.remove(ch) && set.isEmpty()) watchers.remove(id);
+    }
+
+    /** Waits for every task queued so far, e.g. subscriptions, to have run. */
+    void awaitIdle() throws InterruptedException, ExecutionException {
+        executor.submit(() -> {}).get();
+    }
+
+    /** Runs on the presence thread; benchmarks call it directly while that thread is idle. */
+    void flush() {
+        flushScheduled.set(false);
+        // id -> what it views now, or null if it dropped off the list; with its slot
+        Map<String, String> changes = new HashMap<>();
+        Map<String, Integer> changedSlots = new HashMap<>();
+        Set<String> added = new HashSet<>();
+        for (String id : pending.keySet()) {
+            String viewing = pending.remove(id);
+            if (viewing == null) continue;
+            Integer slot = buckets[bucket(id)].slots().get(id);
+            if (slot == null) {
+                slot = free.isEmpty() ? slots++ : free.nextSetBit(0);
+                free.clear(slot);
+                index(id, slot);
+                size++;
+                added.add(id);
+            } else if (viewing.equals(pages[slot / PAGE].viewing()[slot % PAGE])) {
+                continue;
+            }
+            put(slot, id, viewing);
+            changes.put(id, viewing);
+            changedSlots.put(id, slot);
+            offline.remove(id);
+            if (OFFLINE.equals(viewing)) offline.add(id);
+        }
+        while (offline.size() > OFFLINE_KEEP) {
+            String id = offline.removeFirst();
+            int slot = buckets[bucket(id)].slots().get(id);
+            put(slot, null, null);
+            unindex(id);
+            free.set(slot);
+            size--;
+            if (added.remove(id)) {
+                // never published: nobody has to hear it left
+                changes.remove(id);
+                changedSlots.remove(id);
+            } else {
+                changes.put(id, null);
+                changedSlots.put(id, slot);
+            }
+        }
+        if (!editing) return;
+        editing = false;
+        copiedPages.clear();
+        copiedBuckets.clear();
+        current = new Table(version, size, pages, buckets);
+        if (changes.isEmpty()) return;
+
+        // everyone shares one read-only event; pages and friend lists get their slice
+        Map<String, String> event = Collections.unmodifiableMap(changes);
+        for (ClientHandler ch : everyone) deliver(ch, event);
+        Map<ClientHandler, Map<String, String>> slices = new HashMap<>();
+        for (ClientHandler ch : paged) {
+            Filter f = subscribers.get(ch);
+            for (Map.Entry<String, String> e : changes.entrySet()) {
+                if (f.accepts(e.getKey(), changedSlots.get(e.getKey()), ch.getPlayerId())) {
+                    slices.computeIfAbsent(ch, k -> new HashMap<>()).put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            for (ClientHandler ch : watchers.getOrDefault(e.getKey(), Set.of())) {
+                slices.computeIfAbsent(ch, k -> new HashMap<>()).put(e.getKey(), e.getValue());
+            }
+        }
+        slices.forEach(this::deliver);
+    }
+
+    /** Starts the next table on the first change of a flush. */
+    private void edit() {
+        if (editing) return;
+        editing = true;
+        version++;
+        pages = pages.clone();
+        buckets = buckets.clone();
+    }
+
+    private void put(int slot, String id, String viewing) {
+        edit();
+        int p = slot / PAGE;
+        if (p == pages.length) {
+            pages = Arrays.copyOf(pages, p + 1);
+            pages[p] = Page.empty();
+            copiedPages.add(p);
+        } else if (copiedPages.add(p)) {
+            pages[p] = pages[p].copy();
+        }
+        pages[p].ids()[slot % PAGE] = id;
+        pages[p].viewing()[slot % PAGE] = viewing;
+    }
+
+    private Map<String, Integer> bucketToEdit(String id) {
+        edit();
+        int b = bucket(id);
+        if (copiedBuckets.add(b)) buckets[b] = new Bucket(new HashMap<>(buckets[b].slots()));
+        return buckets[b].slots();
+    }
+
+    private void index(String id, int slot) {
+        bucketToEdit(id).put(id, slot);
+    }
+
+    private void unindex(String id) {
+        bucketToEdit(id).remove(id);
+    }
+
+    private void deliver(ClientHandler ch, Map<String, String> changes) {
+        try {
+            ch.onPresence(version, changes);
+        } catch (Throwable t) {
+            Log.error("[Presence] delivery failed", t);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.example.demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel of crop ripening deadlines. Planting schedules one entry, and each
+ * tick only visits the bucket whose time has come, so farms with nothing growing cost
+ * nothing. {@link #schedule} may be called from any thread; buckets are only touched by
+ * the thread calling {@link #advance}.
+ */
+class RipeningWheel {
+    /** A plot that should turn ripe at {@code deadline} (epoch millis). */
+    record Entry(Farm farm, int row, int col, long deadline, long expireTick) {}
+
+    private final long tickMs;
+    private final int mask;
+    private final List<Entry>[] buckets;
+    private final Queue<Entry> inbox = new ConcurrentLinkedQueue<>();
+    private final long startMs;
+    private long tick; // next tick to process; advance() thread only
+
+    /**
+     * @param tickMs    resolution of the wheel
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    RipeningWheel(long tickMs, int wheelSize, long startMs) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickMs = tickMs;
+        this.mask = size - 1;
+        this.buckets = (List<Entry>[]) new List<?>[size];
+        for (int i = 0; i < size; i++) buckets[i] = new ArrayList<>(0);
+        this.startMs = startMs;
+    }
+
+    void schedule(Farm farm, int row, int col, long deadline) {
+        // first tick whose start time is not before the deadline
+        long expireTick = Math.floorDiv(deadline - startMs + tickMs - 1, tickMs);
+        inbox.add(new Entry(farm, row, col, deadline, expireTick));
+    }
+
+    /** Fires every entry whose deadline is at or before {@code now}. */
+    void advance(long now, Consumer<Entry> onExpired) {
+        long target = Math.floorDiv(now - startMs, tickMs);
+        if (target < tick) return;
+
+        Entry e;
+        while ((e = inbox.poll()) != null) {
+            // already overdue entries go into the first bucket we are about to visit
+            long t = Math.max(e.expireTick(), tick);
+            buckets[(int) (t & mask)].add(e);
+        }
+
+        // after a long stall one pass over the wheel is enough to find everything due
+        long from = Math.max(tick, target - mask);
+        for (long t = from; t <= target; t++) {
+            List<Entry> bucket = buckets[(int) (t & mask)];
+            if (bucket.isEmpty()) continue;
+            int kept = 0;
+            for (int i = 0; i < bucket.size(); i++) {
+                Entry entry = bucket.get(i);
+                if (entry.expireTick() <= target) {
+                    onExpired.accept(entry);
+                } else {
+                    bucket.set(kept++, entry); // a later lap of the wheel
+                }
+            }
+            bucket.subList(kept, bucket.size()).clear();
+        }
+        tick = target + 1;
+    }
+}
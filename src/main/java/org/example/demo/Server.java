@@ -1,56 +1,172 @@
 package org.example.demo;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class Server {
-    private static final int PORT = 5050;
-    // ownerId -> farm
+    // player ids are handed out as 1, 2, 3...
+    private static final Pattern PLAYER_ID = Pattern.compile("[1-9][0-9]{0,9}");
+    private final ServerConfig config;
+    // ownerId -> farm; with off-heap storage only the farms someone is using
     private final Map<String, Farm> farms = new ConcurrentHashMap<>();
 
     // 谁在看谁：ownerId -> viewers（这些连接正在观看这个owner的农场）
     private final Map<String, Set<ClientHandler>> viewers = new ConcurrentHashMap<>();
     private final Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
     private int nextId = 1;
+    // guards nextId and login bookkeeping; a ReentrantLock so virtual threads never pin
+    private final ReentrantLock loginLock = new ReentrantLock();
 
-    // 周期推进所有玩家农场的生长
-    private final ScheduledExecutorService ticker =
-            Executors.newSingleThreadScheduledExecutor();
+    // ownerId -> the farm's board as last encoded for viewers
+    private final Map<String, FarmFrame> frames = new ConcurrentHashMap<>();
+    // durable log + snapshots of all farms; null unless --data is set
+    private FarmStore store;
+    // cross-node steals the store recovered still open, handed to the cluster when it starts
+    private FarmStore.OpenTxns recoveredTxns = FarmStore.OpenTxns.empty();
+    // every farm as an off-heap record; null unless --farm-storage=offheap
+    private MappedFarms offHeap;
+    // this node's share of a sharded deployment; null when running alone
+    private Cluster cluster;
+    // actor mode: each farm is changed only on its own event loop; null to change farms in place
+    private final FarmLoops loops;
+    // counters and latency histograms of the hot paths; served with --metrics-port
+    private final Metrics metrics = new Metrics();
+    // two-farm operations (steals) as one unit, plus their audit trail
+    private final FarmTransactions tx = new FarmTransactions(a -> {
+        if (store != null) store.audit(a);
+    }, metrics);
+    // 周期推进所有玩家农场的生长: ripening deadlines of growing plots, sharded by farm and
+    // ticked in parallel; only plots that are due get touched on a tick
+    private final TickShards ticks;
+    // 在线/观看状态：logins, logouts and view changes go out as small coalesced events
+    private final PresenceRegistry presence;
+    // largest batch accepted: a few actions per plot
+    private final int maxBatch;
 
+    public Server(ServerConfig config) {
+        this.config = config;
+        this.presence = new PresenceRegistry(config.getPresenceWindowMs());
+        this.loops = config.getFarmLoops() > 0 ? new FarmLoops(config.getFarmLoops()) : null;
+        this.ticks = new TickShards(config.getTickShards(), config.getTickThreads(), metrics);
+        this.maxBatch = 4 * config.getFarmSpec().plots();
+        Log.setLevel(config.getLogLevel());
+    }
+
+    /**
+     * Options: {@code --port=5050 --core=thread|nio --threads=platform|virtual
+     * --growth=eager|lazy --selectors=N --workers=N --presence-window=MS
+     * --outbound-limit=KB --slow-client=drop|disconnect --data=DIR --wal-sync-ms=MS
+     * --snapshot-secs=S --farm-storage=heap|offheap --cluster=host:port:peerPort,... --node=N
+     * --farm-loops=N --metrics-port=N --log-level=debug|info|warn|error
+     * --tick-shards=N --tick-threads=N --farm-config=FILE}.
+     */
     public static void main(String[] args) throws Exception {
-        new Server().start();
+        new Server(ServerConfig.parse(args)).start();
     }
 
     public void start() throws IOException {
-        System.out.println("[Server] starting on "+ PORT +" ...");
+        Log.info("[Server] starting on {} ... ({})", config.getPort(), config);
+        if (config.getFarmStorage() == ServerConfig.FarmStorage.OFFHEAP) {
+            // the records are the durable state; no log or snapshots needed
+            offHeap = new MappedFarms(config.getDataDir() == null ? null : Path.of(config.getDataDir()), config);
+            nextId = Math.toIntExact(offHeap.count() + 1);
+            Runtime.getRuntime().addShutdownHook(new Thread(offHeap::close, "farms-close"));
+        } else if (config.getDataDir() != null) {
+            openStore();
+        }
+        if (config.getCluster() != null) {
+            cluster = new Cluster(this, config.getCluster(), config.getNode(), store, recoveredTxns);
+            cluster.start();
+        }
+
+        if (config.getMetricsPort() > 0) {
+            metrics.gauge("players_online", clients::size);
+            metrics.gauge("farms_loaded", farms::size);
+            metrics.serve(config.getMetricsPort());
+        }
+
+        // 统一的生长调度：每个分片 100ms tick 一次，推进时间轮，收集“有变化”的 owner 并定向广播
+        ticks.start(this::ripen, this::broadcastState);
 
-        // 统一的生长调度：100ms tick 一次，收集“有变化”的 owner 并定向广播
-        ticker.scheduleAtFixedRate(this::tickAllFarms, 100, 100, TimeUnit.MILLISECONDS);
+        if (config.getCore() == ServerConfig.Core.NIO) {
+            new NioServer(this, config).serve();
+            return;
+        }
 
-        try (ServerSocket ss = new ServerSocket(PORT)) {
+        try (ServerSocket ss = new ServerSocket(config.getPort())) {
             while (true) {
                 Socket s = ss.accept();
-                System.out.println("[Server] new connection: " + s.getRemoteSocketAddress());
+                Log.info("[Server] new connection: {}", s.getRemoteSocketAddress());
 
                 ClientHandler ch = new ClientHandler(this, s);
-                new Thread(ch, "client-" + s.getPort()).start();
+                if (config.getThreads() == ServerConfig.Threads.VIRTUAL) {
+                    Thread.ofVirtual().name("client-" + s.getPort()).start(ch);
+                } else {
+                    new Thread(ch, "client-" + s.getPort()).start();
+                }
+            }
+        }
+    }
+
+    /** Loads the farms saved by an earlier run and starts logging changes. */
+    private void openStore() throws IOException {
+        store = new FarmStore(Path.of(config.getDataDir()), config);
+        FarmStore.Recovered recovered = store.recover();
+        farms.putAll(recovered.farms());
+        nextId = recovered.nextId();
+        recoveredTxns = recovered.txns();
+        boolean eager = config.getGrowth() == ServerConfig.Growth.EAGER;
+        for (Farm farm : farms.values()) {
+            presence.update(farm.getId(), PresenceRegistry.OFFLINE);
+            if (!eager) continue;
+            for (int r = 0; r < farm.getRows(); r++) {
+                for (int c = 0; c < farm.getCols(); c++) {
+                    long ripeAt = farm.ripeAt(r, c);
+                    if (ripeAt >= 0) scheduleRipening(farm, r, c, ripeAt); // overdue ones fire on the first tick
+                }
             }
         }
+        store.startSnapshots(() -> {
+            // under loginLock: no farm is half created and nextId matches the list
+            loginLock.lock();
+            try {
+                return new FarmStore.Contents(List.copyOf(farms.values()), nextId,
+                        cluster == null ? FarmStore.OpenTxns.empty() : cluster.openTxns());
+            } finally {
+                loginLock.unlock();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(store::close, "store-close"));
     }
 
-    public synchronized LoginResult login(String requestedId, ClientHandler ch) {
+    /** @param players which part of the player list this connection is sent */
+    LoginResult login(String requestedId, ClientHandler ch, PresenceRegistry.Filter players) {
+        loginLock.lock();
+        try {
+            return doLogin(requestedId, ch, players);
+        } finally {
+            loginLock.unlock();
+        }
+    }
+
+    private LoginResult doLogin(String requestedId, ClientHandler ch, PresenceRegistry.Filter players) {
         String id;
         Farm farm;
         
-        if (requestedId != null && farms.containsKey(requestedId)) {
+        if (requestedId != null && (cluster == null || cluster.owns(requestedId)) && farm(requestedId) != null) {
             // Reconnect
             id = requestedId;
-            farm = farms.get(id);
-            System.out.println("Player " + id + " reconnected.");
+            farm = farm(id);
+            Log.info("Player {} reconnected.", id);
             
             // If there was an old connection, remove it
             if (clients.containsKey(id)) {
@@ -59,38 +175,73 @@ public class Server {
             }
         } else {
             // New player
-            id = String.valueOf(nextId++);
-            farm = new Farm(id);
+            // in a cluster, skip ids that hash to another node: they are that node's to give out
+            do {
+                id = String.valueOf(nextId++);
+            } while (cluster != null && !cluster.owns(id));
+            boolean lazy = config.getGrowth() == ServerConfig.Growth.LAZY;
+            if (offHeap != null) {
+                try {
+                    farm = offHeap.create(nextId - 1, lazy);
+                } catch (IOException e) {
+                    nextId--;
+                    throw new UncheckedIOException(e);
+                }
+            } else if (store == null) {
+                farm = new Farm(id, config.getFarmSpec(), lazy, Farm.Journal.NONE);
+            } else {
+                farm = new Farm(id, config.getFarmSpec(), lazy, store);
+                store.farmCreated(farm); // logged before anyone can change it
+            }
             farms.put(id, farm);
-            System.out.println("Player " + id + " created.");
+            Log.info("Player {} created.", id);
         }
         
-        clients.put(id, ch);
-        
-        // Default view self
-        ch.setViewingId(id);
+        // Default view self; under the farm's stripe so a steal sees the owner either gone or home
+        String player = id;
+        tx.withFarm(player, () -> {
+            clients.put(player, ch);
+            ch.setViewingId(player);
+        });
         viewers.computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet()).add(ch);
         
-        broadcastPlayerListUpdate();
+        updatePresence(id, id);
+        presence.subscribe(ch, players);
         return new LoginResult(id, farm);
     }
     
     public record LoginResult(String id, Farm farm) {}
 
-    public void broadcastPlayerListUpdate() {
-        Map<String, String> playerList = new HashMap<>();
-        for (String id : farms.keySet()) {
-            ClientHandler ch = clients.get(id);
-            if (ch != null) {
-                playerList.put(id, ch.getViewingId());
-            } else {
-                playerList.put(id, "OFFLINE");
-            }
-        }
+    ServerConfig getConfig() {
+        return config;
+    }
 
-        for (ClientHandler client : clients.values()) {
-            client.updatePlayerList(playerList);
-        }
+    Metrics metrics() {
+        return metrics;
+    }
+
+    /** @return the node {@code playerId} must log in to, or null if it is this one */
+    Cluster.Node homeOf(String playerId) {
+        return cluster == null || cluster.owns(playerId) ? null : cluster.home(playerId);
+    }
+
+    private void updatePresence(String id, String viewing) {
+        presence.update(id, viewing);
+        if (cluster != null) cluster.announce(id, viewing);
+    }
+
+    /** A player on another node logged in, out, or changed view. */
+    void presenceFromPeer(String id, String viewing) {
+        presence.update(id, viewing);
+    }
+
+    void subscribePlayers(ClientHandler ch, PresenceRegistry.Filter filter) {
+        presence.subscribe(ch, filter);
+    }
+
+    /** The whole player list as of the last presence flush, shared by every connection. */
+    PresenceRegistry.Table players() {
+        return presence.table();
     }
     public void removeClient(String clientId) {
         if (clientId == null) return;
@@ -101,37 +252,113 @@ public class Server {
             }
         }
     
-        clients.remove(clientId);
+        tx.withFarm(clientId, () -> clients.remove(clientId));
         viewers.remove(clientId);
-        System.out.println(clientId + " disconnected.");
-        broadcastPlayerListUpdate();
+        Log.info("{} disconnected.", clientId);
+        if (client != null) {
+            presence.unsubscribe(client);
+            release(client.getViewingId());
+        }
+        release(clientId);
+        updatePresence(clientId, PresenceRegistry.OFFLINE);
     }
 
-    private void tickAllFarms() {
-        List<String> dirtyOwners = new ArrayList<>();
-        for (Map.Entry<String, Farm> e : farms.entrySet()) {
-            try {
-                if (e.getValue().tickGrow()) {
-                    dirtyOwners.add(e.getKey());
-                }
-            } catch (Throwable t) {
-                t.printStackTrace();
+    public void scheduleRipening(Farm farm, int row, int col, long deadline) {
+        ticks.schedule(farm, row, col, deadline);
+    }
+
+    /** One due plot, on its shard's tick thread: ripens it, or has its farm's loop do so. */
+    private void ripen(RipeningWheel.Entry e, Set<String> dirtyOwners) {
+        Farm farm = e.farm();
+        if (farm.isLazyGrowth()) {
+            // state is already right on read; only watched farms need a push
+            if (!viewers.getOrDefault(farm.getId(), Set.of()).isEmpty()
+                    || cluster != null && cluster.watched(farm.getId())) {
+                dirtyOwners.add(farm.getId());
             }
-        }
-        for (String ownerId : dirtyOwners) {
-            // broadcast all dirty
-            broadcastState(ownerId);
+        } else if (loops != null) {
+            // the farm's loop ripens it, in order with its plants and harvests
+            loops.tell(farm.getId(), () -> {
+                if (farm.ripen(e.row(), e.col(), e.deadline())) broadcastState(farm.getId());
+            });
+        } else if (farm.ripen(e.row(), e.col(), e.deadline())) {
+            dirtyOwners.add(farm.getId());
         }
     }
 
     public void broadcastState(String ownerId) {
+        int fanout = 0;
         for (ClientHandler ch : viewers.getOrDefault(ownerId, Set.of())) {
             ch.markDirty();
+            fanout++;
+        }
+        metrics.fanout.record(fanout);
+        if (cluster != null && cluster.owns(ownerId)) {
+            cluster.changed(ownerId);
+        }
+    }
+
+    /** The viewed board, encoded at most once per farm change however many connections watch it. */
+    FarmFrame frameOf(Farm farm) {
+        long now = System.currentTimeMillis();
+        FarmFrame f = frames.get(farm.getId());
+        if (f != null && f.isCurrent(farm.getVersion(), now)) {
+            return f;
         }
+        return frames.compute(farm.getId(),
+                (id, old) -> old != null && old.isCurrent(farm.getVersion(), now) ? old : FarmFrame.encode(farm, old));
     }
 
     public Farm getFarm(String player){
-        return farms.get(player);
+        return farm(player);
+    }
+
+    /**
+     * The farm of {@code id}: a replica if another node owns it, else the local farm,
+     * materializing a view of its off-heap record if needed; null if unknown.
+     */
+    private Farm farm(String id) {
+        Farm farm = farms.get(id);
+        if (farm != null) {
+            return farm;
+        }
+        if (cluster != null && !cluster.owns(id)) {
+            return cluster.replica(id);
+        }
+        if (offHeap == null) {
+            return null;
+        }
+        Farm view = offHeap.open(id, true);
+        if (view == null) {
+            return null;
+        }
+        farm = farms.putIfAbsent(id, view);
+        return farm != null ? farm : view;
+    }
+
+    /**
+     * Drops the view of an off-heap farm, or the replica of a remote one, once no one here
+     * owns or watches it. Harmless if it races with a new user: a second one just gets made.
+     */
+    private void release(String id) {
+        if (id == null || clients.containsKey(id) || !viewers.getOrDefault(id, Set.of()).isEmpty()) return;
+        if (cluster != null && !cluster.owns(id)) {
+            cluster.release(id);
+            frames.remove(id);
+        } else if (offHeap != null) {
+            farms.remove(id);
+            frames.remove(id);
+        }
+    }
+
+    /**
+     * Whether {@code id} names a farm that can be viewed: a local one, or for a farm another
+     * node owns, an id of the form that node hands out (its replica fills in once it answers).
+     */
+    boolean hasFarm(String id) {
+        if (id == null) return false;
+        if (cluster != null && !cluster.owns(id)) return PLAYER_ID.matcher(id).matches();
+        return farm(id) != null;
     }
 
     public void setView(String visitorID, String targetID) {
@@ -143,43 +370,241 @@ public class Server {
             Set<ClientHandler> oldViewers = viewers.get(oldTarget);
             // remove visitor
             oldViewers.remove(visitor);
+            release(oldTarget);
         }
         // add visitor to new target
         viewers.computeIfAbsent(targetID, k -> ConcurrentHashMap.newKeySet()).add(visitor);
 
-        visitor.setViewingId(targetID);
+        // leaving home or coming back decides whether the farm can be stolen from
+        tx.withFarm(visitorID, () -> visitor.setViewingId(targetID));
         // mark dirty to update UI
         visitor.markDirty();
 
-        broadcastPlayerListUpdate();
+        updatePresence(visitorID, targetID);
+    }
+
+    /**
+     * @param crop a name from the farm config, or null for its first crop
+     * @return when the crop ripens; runs on the farm's loop in actor mode
+     */
+    long plant(Farm farm, int row, int col, String crop) {
+        int cropId = config.getFarmSpec().crop(crop).id();
+        return onLoop(farm.getId(), () -> farm.plant(row, col, cropId));
+    }
+
+    void harvest(Farm farm, int row, int col) {
+        onLoop(farm.getId(), () -> {
+            farm.harvest(row, col);
+            return null;
+        });
+    }
+
+    private <T> T onLoop(String farmId, Supplier<T> action) {
+        return loops == null ? action.get() : FarmLoops.await(loops.ask(farmId, action));
     }
 
     public String handleSteal(String thiefId, String victimId, int row, int col) {
+        if (cluster != null && !cluster.owns(victimId)) {
+            // the victim's node takes the crop; the thief is credited here when it answers
+            Cluster.Steal steal = cluster.steal(thiefId, victimId, row, col);
+            if (steal.pending()) throw new IllegalStateException(steal.msg());
+            return steal.msg();
+        }
+        // unlocked look first: once a plot is picked clean, thieves give up without queueing
+        Farm victimFarm = farm(victimId);
+        if (victimFarm == null) {
+            return "No such farm";
+        }
+        int check = victimFarm.canSteal(row, col);
+        if (check < 0) {
+            return stealError(check);
+        }
+        String txn = tx.nextTxn();
+        if (loops != null) {
+            // two messages: the victim's loop takes the crop, then the thief's loop adds the coins
+            return FarmLoops.await(loops.ask(victimId, () -> lootLocked(victimId, row, col, null)).thenCompose(loot ->
+                    loot.amount() < 0
+                            ? CompletableFuture.completedFuture(loot.error())
+                            : loops.ask(thiefId, () -> creditHere(txn, thiefId, victimId, row, col, loot.amount(), false))));
+        }
+        // victim's loss and thief's credit under both farms' stripes: one unit, one audit record
+        return tx.withFarms(victimId, thiefId, () -> {
+            Loot loot = loot(victimId, row, col);
+            if (loot.amount() < 0) {
+                return loot.error();
+            }
+            broadcastState(victimId);
+            return creditHere(txn, thiefId, victimId, row, col, loot.amount(), false);
+        });
+    }
+
+    /**
+     * One item of a batch: plant or harvest on the player's own farm, or steal from the viewed
+     * farm. {@code crop} names what to plant, null for the config's first crop.
+     */
+    record Action(String op, int row, int col, String crop) {}
+
+    /** How one batch item went; {@code msg} is what the item would have answered on its own. */
+    record Outcome(boolean ok, String msg) {}
+
+
+    /**
+     * Applies {@code actions} in order as one request. Without farm loops every item runs in a
+     * single critical section under both farms' stripes; in actor mode the victim's loop takes
+     * all the crops in one message and the player's loop does the rest in another. A robbed
+     * farm is broadcast once at the end, and the caller broadcasts the player's own farm once
+     * (after setting its message), not once per item. Steals from a farm on another node are
+     * forwarded one by one, as single steals are.
+     */
+    List<Outcome> batch(String playerId, String viewingId, List<Action> actions) {
+        if (actions.size() > maxBatch) {
+            throw new IllegalArgumentException("Too many actions (max " + maxBatch + ")");
+        }
+        Farm own = farm(playerId);
+        boolean remote = cluster != null && !cluster.owns(viewingId);
+        Outcome[] out = new Outcome[actions.size()];
+        Loot[] loots = new Loot[actions.size()];
+        boolean[] stole = new boolean[1];
+        Supplier<Void> apply = () -> {
+            for (int i = 0; i < out.length; i++) {
+                Action a = actions.get(i);
+                if (!"steal".equals(a.op())) {
+                    out[i] = onOwn(own, a);
+                } else if (!remote) {
+                    Loot loot = loots[i] != null ? loots[i] : loot(viewingId, a.row(), a.col());
+                    if (loot.amount() < 0) {
+                        out[i] = new Outcome(false, loot.error());
+                    } else {
+                        stole[0] = true;
+                        out[i] = new Outcome(true, addLoot(tx.nextTxn(), playerId, viewingId, a.row(), a.col(), loot.amount(), false));
+                    }
+                }
+            }
+            return null;
+        };
+        if (loops == null) {
+            tx.withFarms(viewingId, playerId, apply);
+        } else {
+            if (!remote && actions.stream().anyMatch(a -> "steal".equals(a.op()))) {
+                FarmLoops.await(loops.ask(viewingId, () -> tx.withFarms(viewingId, viewingId, () -> {
+                    for (int i = 0; i < loots.length; i++) {
+                        Action a = actions.get(i);
+                        if ("steal".equals(a.op())) loots[i] = loot(viewingId, a.row(), a.col());
+                    }
+                    return null;
+                })));
+            }
+            onLoop(playerId, apply);
+        }
+        if (remote) {
+            for (int i = 0; i < out.length; i++) {
+                Action a = actions.get(i);
+                if (!"steal".equals(a.op())) continue;
+                Cluster.Steal steal = cluster.steal(playerId, viewingId, a.row(), a.col());
+                out[i] = new Outcome(steal.ok(), steal.msg());
+            }
+        }
+        if (stole[0]) broadcastState(viewingId);
+        return Arrays.asList(out);
+    }
+
+    /** A batch item on the player's own farm; the caller broadcasts. */
+    private Outcome onOwn(Farm own, Action a) {
+        int row = a.row(), col = a.col();
+        try {
+            return switch (a.op()) {
+                case "plant" -> {
+                    scheduleRipening(own, row, col, own.plant(row, col, config.getFarmSpec().crop(a.crop()).id()));
+                    yield new Outcome(true, STR."planted at (\{row}, \{col})");
+                }
+                case "harvest" -> {
+                    own.harvest(row, col);
+                    yield new Outcome(true, STR."harvest at (\{row}, \{col})");
+                }
+                default -> new Outcome(false, "unknown op");
+            };
+        } catch (RuntimeException e) {
+            return new Outcome(false, e.getMessage());
+        }
+    }
+
+    private static String stealError(int code) {
+        return switch (code) {
+            case -2 -> "Crop not ripe";
+            case -3 -> "Not enough yield to steal";
+            default -> "Cannot steal";
+        };
+    }
+
+    /** What a steal took from the victim's farm, or a negative amount and why not. */
+    record Loot(int amount, String error) {}
+
+    /** The victim's half of a steal for another node's thief; on the victim's loop in actor mode. */
+    Loot lootForPeer(String victimId, int row, int col, String txn) {
+        return onLoop(victimId, () -> lootLocked(victimId, row, col, txn));
+    }
+
+    private Loot lootLocked(String victimId, int row, int col, String peerTxn) {
+        Loot loot = tx.withFarms(victimId, victimId, () -> loot(victimId, row, col, peerTxn));
+        if (loot.amount() >= 0) broadcastState(victimId);
+        return loot;
+    }
+
+    /** The victim's half of a steal; the caller holds the victim's stripe and broadcasts. */
+    private Loot loot(String victimId, int row, int col) {
+        return loot(victimId, row, col, null);
+    }
+
+    /** @param peerTxn the other node's transaction, logged with the plot; null for a local steal */
+    private Loot loot(String victimId, int row, int col, String peerTxn) {
         ClientHandler victim = clients.get(victimId);
-        ClientHandler thief = clients.get(thiefId);
 
         // If victim is online and viewing their own farm, prevent stealing
         if (victim != null && victimId.equals(victim.getViewingId())) {
-            return "Owner is at home, cannot steal";
+            return new Loot(-1, "Owner is at home, cannot steal");
         }
 
-        Farm victimFarm = farms.get(victimId);
-        Farm thiefFarm = farms.get(thiefId);
-        int amount = victimFarm.steal(row, col);
+        Farm victimFarm = farm(victimId);
+        if (victimFarm == null) {
+            return new Loot(-1, "No such farm");
+        }
+        int amount = victimFarm.steal(row, col, peerTxn);
 
         if (amount < 0) {
-            return switch (amount) {
-                case -2 -> "Crop not ripe";
-                case -3 -> "Not enough yield to steal";
-                default -> "Cannot steal";
-            };
+            return new Loot(amount, stealError(amount));
         }
+        return new Loot(amount, null);
+    }
+
+    /**
+     * The thief's half of a steal whose victim is on another node; {@code txn} is the
+     * cluster's, and is logged with the coins.
+     */
+    String credit(String txn, String thiefId, String victimId, int row, int col, int amount) {
+        if (loops != null) {
+            return FarmLoops.await(loops.ask(thiefId, () -> creditHere(txn, thiefId, victimId, row, col, amount, true)));
+        }
+        return creditHere(txn, thiefId, victimId, row, col, amount, true);
+    }
 
-        thiefFarm.addCoins(amount);
+    /** Tells a player how something they asked for earlier went, in their next push. */
+    void tell(String playerId, String text) {
+        ClientHandler ch = clients.get(playerId);
+        if (ch != null) ch.tell(text);
+    }
 
-        broadcastState(victimId);
+    /** The thief's half of a steal: adds the coins and records the audit entry; {@code peer} if the txn is the cluster's. */
+    private String creditHere(String txn, String thiefId, String victimId, int row, int col, int amount, boolean peer) {
+        String done = addLoot(txn, thiefId, victimId, row, col, amount, peer);
         broadcastState(thiefId);
+        return done;
+    }
 
+    private String addLoot(String txn, String thiefId, String victimId, int row, int col, int amount, boolean peer) {
+        Farm thiefFarm = farm(thiefId);
+        thiefFarm.addCoins(amount, peer ? txn : null);
+        tx.audit(new FarmTransactions.Audit(txn, System.currentTimeMillis(), thiefId, victimId, row, col,
+                amount, thiefFarm.getCoins()));
         return STR."\{thiefId} stole \{amount} from \{victimId} at (\{row},\{col})";
     }
 
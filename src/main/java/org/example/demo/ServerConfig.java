@@ -0,0 +1,144 @@
+package org.example.demo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Startup options for {@link Server}, parsed from {@code --key=value} arguments.
+ */
+public class ServerConfig {
+    /** Which connection engine accepts and serves clients. */
+    public enum Core { THREAD, NIO }
+    /** Kind of thread the thread core runs each connection on. */
+    public enum Threads { PLATFORM, VIRTUAL }
+    /** eager: the ticker flips GROWING to RIPE; lazy: farms derive RIPE from the clock on read. */
+    public enum Growth { EAGER, LAZY }
+    /** What happens to a client whose outbound queue is full: its messages are dropped, or it is disconnected. */
+    public enum SlowClient { DROP, DISCONNECT }
+    /** heap: one object per farm; offheap: fixed-size records in {@link MappedFarms}, views for active farms only. */
+    public enum FarmStorage { HEAP, OFFHEAP }
+
+    private int port = 5050;
+    private Core core = Core.THREAD;
+    private Threads threads = Threads.PLATFORM;
+    private Growth growth = Growth.EAGER;
+    private int selectorThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+    private int presenceWindowMs = 50;
+    private int outboundLimitKb = 256;
+    private SlowClient slowClient = SlowClient.DROP;
+    private String dataDir; // null: farms live in memory only
+    private int walSyncMs = 10;
+    private int snapshotSecs = 60;
+    private FarmStorage farmStorage = FarmStorage.HEAP;
+    private List<Cluster.Node> cluster; // null: a single server owns every farm
+    private int node;
+    private int farmLoops; // 0: no actor mode
+    private int metricsPort; // 0: no metrics endpoint
+    private Log.Level logLevel = Log.Level.INFO;
+    private int tickShards = Runtime.getRuntime().availableProcessors();
+    private int tickThreads = Runtime.getRuntime().availableProcessors();
+    private FarmSpec farmSpec = FarmSpec.DEFAULT;
+
+    public static ServerConfig parse(String[] args) {
+        ServerConfig cfg = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Bad option: " + arg + " (expected --key=value)");
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            switch (key) {
+                case "port" -> cfg.port = Integer.parseInt(value);
+                case "core" -> cfg.core = Core.valueOf(value.toUpperCase());
+                case "threads" -> cfg.threads = Threads.valueOf(value.toUpperCase());
+                case "growth" -> cfg.growth = Growth.valueOf(value.toUpperCase());
+                case "selectors" -> cfg.selectorThreads = positive(key, value);
+                case "workers" -> cfg.workerThreads = positive(key, value);
+                case "presence-window" -> cfg.presenceWindowMs = positive(key, value);
+                case "outbound-limit" -> cfg.outboundLimitKb = positive(key, value);
+                case "slow-client" -> cfg.slowClient = SlowClient.valueOf(value.toUpperCase());
+                case "data" -> cfg.dataDir = value.isEmpty() ? null : value;
+                case "wal-sync-ms" -> cfg.walSyncMs = positive(key, value);
+                case "snapshot-secs" -> cfg.snapshotSecs = positive(key, value);
+                case "farm-storage" -> cfg.farmStorage = FarmStorage.valueOf(value.toUpperCase());
+                case "cluster" -> cfg.cluster = Arrays.stream(value.split(",")).map(Cluster.Node::parse).toList();
+                case "node" -> cfg.node = Integer.parseInt(value);
+                case "farm-loops" -> cfg.farmLoops = Math.max(0, Integer.parseInt(value));
+                case "metrics-port" -> cfg.metricsPort = Math.max(0, Integer.parseInt(value));
+                case "log-level" -> cfg.logLevel = Log.Level.valueOf(value.toUpperCase());
+                case "tick-shards" -> cfg.tickShards = positive(key, value);
+                case "tick-threads" -> cfg.tickThreads = positive(key, value);
+                case "farm-config" -> cfg.farmSpec = loadSpec(value);
+                default -> throw new IllegalArgumentException("Unknown option: --" + key);
+            }
+        }
+        if (cfg.cluster != null) {
+            if (cfg.node < 0 || cfg.node >= cfg.cluster.size()) {
+                throw new IllegalArgumentException("--node must index --cluster (0.." + (cfg.cluster.size() - 1) + ")");
+            }
+            if (cfg.farmStorage == FarmStorage.OFFHEAP) {
+                throw new IllegalArgumentException("--farm-storage=offheap needs dense ids and cannot be sharded");
+            }
+            cfg.port = cfg.cluster.get(cfg.node).port();
+        }
+        if (cfg.farmStorage == FarmStorage.OFFHEAP) {
+            // eager growth would need every growing plot of every farm in the ripening wheel
+            cfg.growth = Growth.LAZY;
+        }
+        return cfg;
+    }
+
+    private static int positive(String key, String value) {
+        int n = Integer.parseInt(value);
+        if (n <= 0) throw new IllegalArgumentException("--" + key + " must be > 0");
+        return n;
+    }
+
+    private static FarmSpec loadSpec(String file) {
+        try {
+            return FarmSpec.load(Path.of(file));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("--farm-config: " + e.getMessage(), e);
+        }
+    }
+
+    public int getPort() { return port; }
+    public Core getCore() { return core; }
+    public Threads getThreads() { return threads; }
+    public Growth getGrowth() { return growth; }
+    public int getSelectorThreads() { return selectorThreads; }
+    public int getWorkerThreads() { return workerThreads; }
+    /** How long player-list changes are collected before they are pushed as one event. */
+    public int getPresenceWindowMs() { return presenceWindowMs; }
+    /** Bytes a connection may have waiting for its socket before the slow-client policy applies. */
+    public int getOutboundLimitBytes() { return outboundLimitKb * 1024; }
+    public SlowClient getSlowClient() { return slowClient; }
+    /** Directory for the write-ahead log and snapshots, or null to keep farms in memory only. */
+    public String getDataDir() { return dataDir; }
+    /** How often the log is forced to disk; one fsync covers every change made meanwhile. */
+    public int getWalSyncMs() { return walSyncMs; }
+    public int getSnapshotSecs() { return snapshotSecs; }
+    public FarmStorage getFarmStorage() { return farmStorage; }
+    /** All nodes of a sharded deployment, in the same order on every node; null when alone. */
+    public List<Cluster.Node> getCluster() { return cluster; }
+    /** This server's index in {@link #getCluster()}. */
+    public int getNode() { return node; }
+    /** Event loops owning the farms in actor mode, or 0 to change farms on the caller's thread. */
+    public int getFarmLoops() { return farmLoops; }
+    /** Local port serving {@code /metrics} as plain text, or 0 for none. */
+    public int getMetricsPort() { return metricsPort; }
+    /** Lines below this level are skipped before anything is queued; steal events are DEBUG. */
+    public Log.Level getLogLevel() { return logLevel; }
+    /** Ripening wheels the farms are split over by id; each is ticked on its own phase. */
+    public int getTickShards() { return tickShards; }
+    /** Threads that run the shards' ticks. */
+    public int getTickThreads() { return tickThreads; }
+    FarmSpec getFarmSpec() { return farmSpec; }
+
+    @Override public String toString() {
+        return STR."port=\{port} core=\{core} threads=\{threads} growth=\{growth} selectors=\{selectorThreads} workers=\{workerThreads} presence-window=\{presenceWindowMs} outbound-limit=\{outboundLimitKb}KB slow-client=\{slowClient} data=\{dataDir == null ? "-" : dataDir} farm-storage=\{farmStorage} farm-loops=\{farmLoops} metrics-port=\{metricsPort} log-level=\{logLevel} tick-shards=\{tickShards} tick-threads=\{tickThreads} farms=\{farmSpec}\{cluster == null ? "" : " node=" + node + " cluster=" + cluster}";
+    }
+}
@@ -0,0 +1,94 @@
+package org.example.demo;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link Transport} over a blocking {@link Socket}, used by the thread-per-connection core.
+ * The reader thread and the pusher thread both queue messages here; only the pusher
+ * writes to the socket ({@link #drain}), so a client that stops reading blocks its pusher
+ * and never the thread answering its requests.
+ */
+class StreamTransport implements Transport {
+    private final Socket socket;
+    private final BufferedOutputStream out;
+    private final Thread pusher;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final OutboundQueue.Staging staged = new OutboundQueue.Staging();
+    private final OutboundQueue outbound;
+    private final ServerConfig.SlowClient slowClient;
+
+    StreamTransport(Socket socket, Thread pusher, ServerConfig config, Metrics metrics) throws IOException {
+        this.socket = socket;
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.pusher = pusher;
+        this.outbound = new OutboundQueue(config.getOutboundLimitBytes(), metrics);
+        this.slowClient = config.getSlowClient();
+    }
+
+    @Override public void write(byte[] buf, int off, int len) {
+        lock.lock();
+        try {
+            staged.write(buf, off, len);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override public void write(ByteBuffer shared) {
+        lock.lock();
+        try {
+            staged.share(shared);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override public boolean flush() throws IOException {
+        return queue(false);
+    }
+
+    @Override public boolean reply() throws IOException {
+        return queue(true);
+    }
+
+    private boolean queue(boolean reply) throws IOException {
+        ByteBuffer[] msg;
+        lock.lock();
+        try {
+            if (staged.isEmpty()) return true;
+            msg = staged.take();
+        } finally {
+            lock.unlock();
+        }
+        if (!outbound.offer(msg, reply)) {
+            if ((reply || slowClient == ServerConfig.SlowClient.DISCONNECT) && !socket.isClosed()) {
+                Log.warn("[Server] slow client, disconnecting: {}", socket.getRemoteSocketAddress());
+                close();
+            }
+            return false;
+        }
+        LockSupport.unpark(pusher);
+        return true;
+    }
+
+    @Override public boolean backlogged() {
+        return outbound.pendingBytes() > 0;
+    }
+
+    /** Pusher thread only: writes everything queued so far, blocking, with one flush. */
+    void drain() throws IOException {
+        outbound.drainTo(out);
+    }
+
+    @Override public void close() throws IOException {
+        socket.close();
+    }
+
+    @Override public void wakeup() {
+        LockSupport.unpark(pusher);
+    }
+}
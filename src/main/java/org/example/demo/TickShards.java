@@ -0,0 +1,89 @@
+package org.example.demo;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Crop growth ticks, split into shards by farm id. Each shard has its own
+ * {@link RipeningWheel} and its own dirty set, and is ticked every {@value #TICK_MS} ms by
+ * a shared pool, so many due plots ripen on several threads at once instead of one. Shard
+ * {@code i} runs {@code i/N} of a period after shard 0, plus a random jitter. So the shards
+ * do not all reach for farm stripes and viewer sets at the same moment, and client threads
+ * never meet a convoy of them. A tick that takes longer than its period counts as an
+ * overrun in {@link Metrics}.
+ */
+final class TickShards {
+    static final long TICK_MS = 100;
+
+    private final RipeningWheel[] wheels;
+    private final ScheduledExecutorService pool;
+    private final Metrics metrics;
+
+    TickShards(int shards, int threads, Metrics metrics) {
+        long now = System.currentTimeMillis();
+        this.wheels = new RipeningWheel[shards];
+        for (int i = 0; i < shards; i++) wheels[i] = new RipeningWheel(TICK_MS, 512, now);
+        AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newScheduledThreadPool(threads, r -> new Thread(r, "tick-" + n.getAndIncrement()));
+        this.metrics = metrics;
+    }
+
+    private RipeningWheel wheelOf(String farmId) {
+        return wheels[(int) Math.floorMod(HashRing.hash(farmId), (long) wheels.length)];
+    }
+
+    /** May be called from any thread. */
+    void schedule(Farm farm, int row, int col, long deadline) {
+        wheelOf(farm.getId()).schedule(farm, row, col, deadline);
+    }
+
+    /**
+     * Starts ticking every shard.
+     * @param onDue     handles one due plot on the shard's thread, adding farms to push to the set
+     * @param broadcast called once per farm in a shard's dirty set, after the whole shard ticked
+     */
+    void start(BiConsumer<RipeningWheel.Entry, Set<String>> onDue, Consumer<String> broadcast) {
+        // in nanoseconds: with more shards than milliseconds in a tick each still gets its own phase
+        long period = TimeUnit.MILLISECONDS.toNanos(TICK_MS);
+        long slot = period / wheels.length;
+        for (int i = 0; i < wheels.length; i++) {
+            RipeningWheel wheel = wheels[i];
+            Set<String> dirty = new HashSet<>();
+            long phase = i * slot + ThreadLocalRandom.current().nextLong(slot / 2 + 1);
+            pool.scheduleAtFixedRate(() -> tick(wheel, dirty, onDue, broadcast),
+                    period + phase, period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** One shard's tick; a shard never runs twice at once, so its wheel and set need no lock. */
+    private void tick(RipeningWheel wheel, Set<String> dirty,
+                      BiConsumer<RipeningWheel.Entry, Set<String>> onDue, Consumer<String> broadcast) {
+        long start = System.nanoTime();
+        try {
+            wheel.advance(System.currentTimeMillis(), e -> {
+                try {
+                    onDue.accept(e, dirty);
+                } catch (Throwable t) {
+                    Log.error("[Tick] ripening failed", t);
+                }
+            });
+            metrics.tickDirty.record(dirty.size());
+            dirty.forEach(broadcast);
+        } catch (Throwable t) {
+            // an exception would cancel the shard's schedule for good
+            Log.error("[Tick] shard tick failed", t);
+        } finally {
+            dirty.clear();
+        }
+        long took = System.nanoTime() - start;
+        metrics.tickDuration.record(took);
+        if (took > TimeUnit.MILLISECONDS.toNanos(TICK_MS)) metrics.tickOverruns.increment();
+    }
+}
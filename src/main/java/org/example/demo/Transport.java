@@ -0,0 +1,47 @@
+package org.example.demo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Outbound side of one client connection, so {@link ClientHandler} can run on
+ * either a blocking socket or an NIO channel.
+ */
+interface Transport {
+    /** Buffers raw bytes (a binary frame, or an encoded line). */
+    void write(byte[] buf, int off, int len) throws IOException;
+
+    /** Adds a shared, read-only buffer to the message by reference; it must never change. */
+    void write(ByteBuffer shared);
+
+    /** Buffers one protocol line; the trailing newline is added here. */
+    default void writeLine(String line) throws IOException {
+        byte[] b = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Ends the message written since the last call and queues it for the socket. Never
+     * blocks on a slow client.
+     * @return false if the outbound queue was full: the message was dropped, or under
+     *         {@code --slow-client=disconnect} the connection is being closed
+     */
+    boolean flush() throws IOException;
+
+    /**
+     * Like {@link #flush}, for the answer to a request, which is never dropped: it may use
+     * headroom past the queue limit, and if even that is full the connection is closed
+     * whatever the slow-client policy, so the client fails its requests instead of waiting.
+     * @return false if the connection is being closed
+     */
+    boolean reply() throws IOException;
+
+    /** True while earlier output is still waiting for the socket; pushes hold off until it drains. */
+    boolean backlogged();
+
+    void close() throws IOException;
+
+    /** Called after the handler was marked dirty, so the transport can schedule a push. */
+    default void wakeup() {}
+}
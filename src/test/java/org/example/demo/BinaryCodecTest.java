@@ -0,0 +1,119 @@
+package org.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/** Every frame {@link BinaryCodec} encodes reads back as the JSON-shaped message the client expects. */
+class BinaryCodecTest {
+    private final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    private final BinaryCodec.Frame frame = new BinaryCodec.Frame();
+
+    private void send() {
+        wire.write(frame.array(), 0, frame.size());
+    }
+
+    private Map<String, Object> receive() throws IOException {
+        return BinaryCodec.read(new DataInputStream(new ByteArrayInputStream(wire.toByteArray())));
+    }
+
+    @Test
+    void fullStateRoundTrips() throws IOException {
+        byte[] board = new byte[3 * 5];
+        for (int i = 0; i < board.length; i++) board[i] = (byte) (i % 3);
+        BinaryCodec.encodeFarm(frame, "7", 42, 3, 5, board);
+        send();
+        BinaryCodec.encodeState(frame, 9, "7", 123_456, "héllo", Map.of("7", "7", "8", "OFFLINE"));
+        send();
+
+        Map<String, Object> msg = receive();
+        assertEquals("state", msg.get("type"));
+        assertEquals(9L, msg.get("seq"));
+        assertEquals("7", msg.get("clientId"));
+        assertEquals(123_456, msg.get("coins"));
+        assertEquals("héllo", msg.get("msg"));
+        assertEquals(Map.of("7", "7", "8", "OFFLINE"), msg.get("players"));
+        assertEquals(List.of(
+                List.of("EMPTY", "GROWING", "RIPE", "EMPTY", "GROWING"),
+                List.of("RIPE", "EMPTY", "GROWING", "RIPE", "EMPTY"),
+                List.of("GROWING", "RIPE", "EMPTY", "GROWING", "RIPE")), msg.get("board"));
+    }
+
+    @Test
+    void specIsFoldedIntoTheWelcome() throws IOException {
+        FarmSpec spec = new FarmSpec(2, 2, 40, List.of(
+                new FarmSpec.Crop(0, "wheat", 10_000, 5, 12, 0.2, 0.25),
+                new FarmSpec.Crop(1, "pumpkin", 60_000, 20, 60, 0.5, 0.1)));
+        BinaryCodec.encodeSpec(frame, spec);
+        send();
+        BinaryCodec.encodeFarm(frame, "1", 0, 2, 2, new byte[4]);
+        send();
+        BinaryCodec.encodeState(frame, 0, "1", 40, "welcome", null);
+        send();
+
+        Map<String, Object> msg = receive();
+        assertEquals("welcome", msg.get("msg"));
+        Map<?, ?> got = (Map<?, ?>) msg.get("spec");
+        assertEquals(2, got.get("rows"));
+        List<?> crops = (List<?>) got.get("crops");
+        assertEquals(Map.of("name", "pumpkin", "growMs", 60_000L, "cost", 20, "yield", 60), crops.get(1));
+    }
+
+    @Test
+    void deltaRoundTrips() throws IOException {
+        Farm farm = new Farm("5");
+        DeltaTracker sent = new DeltaTracker();
+        FarmFrame before = FarmFrame.encode(farm);
+        sent.markFull(before, farm.getCoins(), "a");
+        farm.plant(1, 2);
+        FarmFrame after = FarmFrame.encode(farm, before);
+        long seq = sent.diff(after, farm.getCoins(), "planted", Map.of("9", "5"), Set.of("3"));
+        BinaryCodec.encodeDelta(frame, seq, sent, after.cols(), after.board(), farm.getCoins(), "planted");
+        send();
+
+        Map<String, Object> msg = receive();
+        assertEquals("delta", msg.get("type"));
+        assertEquals(seq, msg.get("seq"));
+        assertEquals(35, msg.get("coins"));
+        assertEquals("planted", msg.get("msg"));
+        assertEquals(List.of(List.of(1, 2, "GROWING")), msg.get("plots"));
+        assertEquals(Map.of("9", "5"), msg.get("players"));
+        assertEquals(List.of("3"), msg.get("left"));
+    }
+
+    @Test
+    void repliesRoundTrip() throws IOException {
+        BinaryCodec.encodeAck(frame, 300, true, "planted at (0, 0)");
+        send();
+        Map<String, Object> ack = receive();
+        assertEquals("ack", ack.get("type"));
+        assertEquals(300L, ack.get("rid"));
+        assertEquals("planted at (0, 0)", ack.get("msg"));
+
+        wire.reset();
+        BinaryCodec.encodeAck(frame, 1, false, "Plot occupied");
+        send();
+        assertEquals("error", receive().get("type"));
+
+        wire.reset();
+        BinaryCodec.encodeBatch(frame, -1, List.of(new Server.Outcome(true, "ok"), new Server.Outcome(false, "no")));
+        send();
+        Map<String, Object> batch = receive();
+        assertFalse(batch.containsKey("rid"));
+        assertEquals(List.of(Map.of("ok", true, "msg", "ok"), Map.of("ok", false, "msg", "no")), batch.get("results"));
+
+        wire.reset();
+        BinaryCodec.encodeRedirect(frame, "12", "10.0.0.2", 5051);
+        send();
+        assertEquals(Map.of("type", "redirect", "id", "12", "host", "10.0.0.2", "port", 5051), receive());
+    }
+}
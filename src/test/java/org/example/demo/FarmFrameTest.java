@@ -0,0 +1,95 @@
+package org.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Frames made from the one before, and patches a {@link DeltaTracker} computes from them,
+ * must always add up to the board a full read of the farm gives.
+ */
+class FarmFrameTest {
+    private static FarmSpec spec(int rows, int cols) {
+        return new FarmSpec(rows, cols, 1_000_000, List.of(new FarmSpec.Crop(0, "wheat", 10_000, 1, 12, 0.2, 0.25)));
+    }
+
+    /** One random plant, harvest, ripen or steal; failures (occupied, not ripe) are fine. */
+    private static void randomChange(Farm farm, Random rnd) {
+        int row = rnd.nextInt(farm.getRows()), col = rnd.nextInt(farm.getCols());
+        try {
+            switch (rnd.nextInt(4)) {
+                case 0 -> farm.plant(row, col);
+                case 1 -> farm.harvest(row, col);
+                case 2 -> {
+                    long due = farm.ripeAt(row, col);
+                    if (due >= 0) farm.ripen(row, col, due);
+                }
+                default -> farm.steal(row, col);
+            }
+        } catch (IllegalStateException ignore) {
+        }
+    }
+
+    /**
+     * A client's copy of the board, kept up to date only from full states and patches,
+     * checked against a fresh full read after every push. Some pushes are skipped, as for
+     * a connection that fell behind.
+     */
+    private static void followFarm(int rows, int cols, long seed) {
+        Farm farm = new Farm("1", spec(rows, cols), false, Farm.Journal.NONE);
+        Random rnd = new Random(seed);
+        DeltaTracker sent = new DeltaTracker();
+        byte[] client = null;
+        FarmFrame frame = FarmFrame.encode(farm);
+        for (int push = 0; push < 2000; push++) {
+            // sometimes no change, sometimes more than the farm's change ring holds
+            int changes = rnd.nextInt(10) == 0 ? 100 : rnd.nextInt(4);
+            for (int i = 0; i < changes; i++) randomChange(farm, rnd);
+            frame = FarmFrame.encode(farm, frame);
+            assertArrayEquals(FarmFrame.encode(farm).board(), frame.board(), "frame at push " + push);
+            if (rnd.nextInt(5) == 0) continue; // this connection misses the frame
+
+            if (client == null || sent.needsFull(frame)) {
+                sent.markFull(frame, farm.getCoins(), "");
+                client = frame.board().clone();
+            } else if (sent.diff(frame, farm.getCoins(), "", Map.of(), Set.of()) >= 0) {
+                for (int k = 0; k < sent.changedCount(); k++) {
+                    int i = sent.changedPlot(k);
+                    client[i] = frame.board()[i];
+                }
+            }
+            assertArrayEquals(FarmFrame.encode(farm).board(), client, "client at push " + push);
+        }
+    }
+
+    @Test
+    void patchesOnABigBoardMatchAFullRead() {
+        followFarm(16, 16, 1);
+    }
+
+    @Test
+    void patchesOnASmallBoardMatchAFullRead() {
+        // 16 plots: no change ring, every frame re-reads the board
+        followFarm(4, 4, 2);
+    }
+
+    @Test
+    void aFrameListsOnlyThePlotsThatChanged() {
+        Farm farm = new Farm("1", spec(16, 16), false, Farm.Journal.NONE);
+        FarmFrame first = FarmFrame.encode(farm);
+        FarmFrame second = FarmFrame.encode(farm, first); // the farm starts remembering changes here
+        farm.plant(2, 3);
+        farm.plant(15, 15);
+        FarmFrame third = FarmFrame.encode(farm, second);
+        assertEquals(second.serial(), third.baseSerial());
+        assertArrayEquals(new int[]{2 * 16 + 3, 255}, third.changed());
+        assertEquals(PlotState.GROWING.ordinal(), third.board()[255]);
+        assertEquals(PlotState.EMPTY.ordinal(), second.board()[255]);
+    }
+}
@@ -0,0 +1,135 @@
+package org.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** The CAS invariants of {@link Farm} with many threads on one plot. */
+class FarmTest {
+    private static final int THREADS = 8;
+
+    // a big yield so a plot can be stolen from many times before it hits the floor
+    private static final FarmSpec SPEC = new FarmSpec(4, 4, 1000,
+            List.of(new FarmSpec.Crop(0, "wheat", 10_000, 5, 60_000, 0.20, 0.25)));
+
+    private static Farm farm() {
+        return new Farm("f", SPEC, false, Farm.Journal.NONE);
+    }
+
+    private static void plantRipe(Farm farm, int row, int col) {
+        assertTrue(farm.ripen(row, col, farm.plant(row, col)));
+    }
+
+    /** Runs {@code task} on every thread at once. @return each thread's result */
+    private static <T> List<T> race(Callable<T> task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> f : futures) results.add(f.get());
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentStealsNeverTakeMoreThanTheCrop() throws Exception {
+        Farm farm = farm();
+        plantRipe(farm, 1, 2);
+        List<Long> stolen = race(() -> {
+            long sum = 0;
+            int amount;
+            while ((amount = farm.steal(1, 2)) >= 0) sum += amount;
+            assertEquals(-3, amount, "stops only at the yield floor");
+            return sum;
+        });
+        long total = stolen.stream().mapToLong(Long::longValue).sum();
+
+        int coins = farm.getCoins();
+        farm.harvest(1, 2);
+        int left = farm.getCoins() - coins;
+        // every steal came off the yield exactly once: what was taken plus what is left is the crop
+        assertEquals(60_000, total + left);
+        assertTrue(left >= 60_000 * 0.20 * 0.75, "left " + left);
+    }
+
+    @Test
+    void concurrentHarvestsPayOnce() throws Exception {
+        Farm farm = farm();
+        plantRipe(farm, 0, 0);
+        List<Boolean> won = race(() -> {
+            try {
+                farm.harvest(0, 0);
+                return true;
+            } catch (IllegalStateException e) {
+                return false;
+            }
+        });
+        assertEquals(1, won.stream().filter(b -> b).count());
+        assertEquals(1000 - 5 + 60_000, farm.getCoins());
+        assertEquals(PlotState.EMPTY, farm.getState(0, 0));
+    }
+
+    @Test
+    void concurrentPlantsOnOnePlotChargeOnce() throws Exception {
+        Farm farm = farm();
+        List<Boolean> won = race(() -> {
+            try {
+                farm.plant(3, 3);
+                return true;
+            } catch (IllegalStateException e) {
+                return false;
+            }
+        });
+        assertEquals(1, won.stream().filter(b -> b).count());
+        assertEquals(1000 - 5, farm.getCoins());
+    }
+
+    @Test
+    void plantsNeverSpendCoinsTheFarmDoesNotHave() throws Exception {
+        // 40 coins buy 8 of the 16 plots, whichever threads get there first
+        Farm farm = new Farm("f", FarmSpec.DEFAULT, false, Farm.Journal.NONE);
+        List<Integer> planted = race(() -> {
+            int n = 0;
+            for (int i = 0; i < 16; i++) {
+                try {
+                    farm.plant(i / 4, i % 4);
+                    n++;
+                } catch (IllegalStateException e) {
+                    // taken by another thread, or out of coins
+                }
+            }
+            return n;
+        });
+        assertEquals(8, planted.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(0, farm.getCoins());
+    }
+
+    @Test
+    void unripePlotsCannotBeHarvestedOrStolen() {
+        Farm farm = farm();
+        farm.plant(0, 1);
+        assertThrows(IllegalStateException.class, () -> farm.harvest(0, 1));
+        assertEquals(-2, farm.steal(0, 1));
+        assertEquals(-1, farm.steal(9, 9));
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/** The tables a {@link PresenceRegistry} publishes: contents, sharing between versions, and pruning. */
+class PresenceRegistryTest {
+    // no scheduled flush comes during a test; each one flushes by itself
+    private final PresenceRegistry registry = new PresenceRegistry(3_600_000);
+
+    @Test
+    void aTableListsEveryoneAndNeverChangesOncePublished() {
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 1; i <= 600; i++) {
+            registry.update(String.valueOf(i), String.valueOf(i));
+            expected.put(String.valueOf(i), String.valueOf(i));
+        }
+        registry.flush();
+        PresenceRegistry.Table first = registry.table();
+        assertEquals(expected, first);
+        assertEquals(1, first.version());
+
+        registry.update("7", "8");
+        registry.update("601", "601");
+        registry.flush();
+        PresenceRegistry.Table second = registry.table();
+        assertEquals("8", second.get("7"));
+        assertEquals(601, second.size());
+        assertEquals(2, second.version());
+        assertEquals(expected, first, "the older table is untouched");
+
+        registry.update("7", "8"); // no change: no new table
+        registry.flush();
+        assertEquals(2, registry.table().version());
+    }
+
+    @Test
+    void longGoneOfflinePlayersDropOffAndFreeTheirSlot() {
+        int n = PresenceRegistry.OFFLINE_KEEP + 10;
+        for (int i = 1; i <= n; i++) registry.update(String.valueOf(i), String.valueOf(i));
+        registry.flush();
+        for (int i = 1; i <= n; i++) registry.update(String.valueOf(i), PresenceRegistry.OFFLINE);
+        registry.flush();
+        // one flush goes out in no particular order; the next departures are ordered
+        registry.update("1", "1");
+        registry.flush();
+        registry.update("1", PresenceRegistry.OFFLINE);
+        registry.flush();
+
+        PresenceRegistry.Table table = registry.table();
+        assertEquals(PresenceRegistry.OFFLINE_KEEP, table.size());
+        assertEquals(PresenceRegistry.OFFLINE, table.get("1"), "the last to leave stays listed");
+
+        // a newcomer takes a freed slot, so pages keep their shape
+        registry.update("new", "new");
+        registry.flush();
+        PresenceRegistry.Table after = registry.table();
+        assertEquals(PresenceRegistry.OFFLINE_KEEP + 1, after.size());
+        assertEquals("new", after.view(PresenceRegistry.Filter.page(0, n), "new").get("new"));
+        assertEquals(Map.of(), after.view(PresenceRegistry.Filter.page(n, n), "new"));
+    }
+
+    @Test
+    void pagesAreSlicesOfSlots() {
+        for (int i = 0; i < 10; i++) registry.update("p" + i, "p" + i);
+        registry.flush();
+        PresenceRegistry.Table table = registry.table();
+        Map<String, String> page = table.view(PresenceRegistry.Filter.page(0, 4), "p0");
+        assertEquals(4, page.size());
+        Map<String, String> friends = table.view(PresenceRegistry.Filter.friends(List.of("p3", "nobody")), "p9");
+        assertEquals(Map.of("p3", "p3", "p9", "p9"), friends);
+        assertNull(table.get("nobody"));
+    }
+}
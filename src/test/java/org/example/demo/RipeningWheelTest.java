@@ -0,0 +1,87 @@
+package org.example.demo;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** A {@link RipeningWheel} fires an entry on the first tick at or after its deadline, never before. */
+class RipeningWheelTest {
+    private static final long TICK = 10;
+
+    private final RipeningWheel wheel = new RipeningWheel(TICK, 8, 1_000); // one lap is 80 ms
+    private final List<Long> fired = new ArrayList<>();
+
+    private void advance(long now) {
+        wheel.advance(now, e -> {
+            assertTrue(e.deadline() <= now, "fired " + e.deadline() + " at " + now);
+            fired.add(e.deadline());
+        });
+    }
+
+    @Test
+    void firesAtTheFirstTickAtOrAfterTheDeadline() {
+        wheel.schedule(null, 0, 0, 1_025);
+        wheel.schedule(null, 0, 1, 1_030);
+        advance(1_029);
+        assertEquals(List.of(), fired);
+        advance(1_030);
+        assertEquals(List.of(1_025L, 1_030L), fired);
+        advance(2_000);
+        assertEquals(2, fired.size(), "fires once");
+    }
+
+    @Test
+    void deadlinesLaterThanOneLapWaitForTheirLap() {
+        wheel.schedule(null, 0, 0, 1_005);
+        wheel.schedule(null, 0, 0, 1_085); // same bucket, one lap later
+        wheel.schedule(null, 0, 0, 1_405); // five laps later
+        advance(1_010);
+        assertEquals(List.of(1_005L), fired);
+        advance(1_089);
+        assertEquals(List.of(1_005L), fired);
+        advance(1_090);
+        assertEquals(List.of(1_005L, 1_085L), fired);
+        for (long now = 1_100; now < 1_410; now += TICK) advance(now);
+        assertEquals(List.of(1_005L, 1_085L), fired);
+        advance(1_410);
+        assertEquals(List.of(1_005L, 1_085L, 1_405L), fired);
+    }
+
+    @Test
+    void overdueAndStalledEntriesFireOnTheNextAdvance() {
+        advance(1_500);
+        wheel.schedule(null, 0, 0, 1_200); // already past
+        wheel.schedule(null, 0, 0, 1_600);
+        wheel.schedule(null, 0, 0, 2_500);
+        advance(1_510);
+        assertEquals(List.of(1_200L), fired);
+        advance(9_000); // a long stall: everything due fires in one pass
+        assertEquals(List.of(1_200L, 1_600L, 2_500L), fired);
+    }
+
+    @Test
+    void randomDeadlinesFireWithinOneTick() {
+        Random rnd = new Random(7);
+        List<Long> due = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            long d = 1_000 + rnd.nextInt(1_000);
+            due.add(d);
+            wheel.schedule(null, 0, 0, d);
+        }
+        for (long now = 1_000; now <= 2_020; now += 3) {
+            int before = fired.size();
+            advance(now);
+            for (long d : fired.subList(before, fired.size())) {
+                assertTrue(now - d < TICK + 3, "late by " + (now - d));
+            }
+        }
+        due.sort(null);
+        fired.sort(null);
+        assertEquals(due, fired);
+    }
+}
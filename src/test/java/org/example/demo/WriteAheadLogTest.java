@@ -0,0 +1,75 @@
+package org.example.demo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WriteAheadLogTest {
+    @TempDir Path dir;
+
+    private static WriteAheadLog.Slot append(WriteAheadLog wal, String text) throws IOException {
+        byte[] b = text.getBytes(StandardCharsets.UTF_8);
+        WriteAheadLog.Slot slot = wal.reserve(b.length);
+        slot.buf.put(slot.offset, b);
+        return slot;
+    }
+
+    private List<String> replay() throws IOException {
+        List<String> out = new ArrayList<>();
+        WriteAheadLog.replay(dir, 0, rec -> {
+            byte[] b = new byte[rec.remaining()];
+            rec.get(b);
+            out.add(new String(b, StandardCharsets.UTF_8));
+        });
+        return out;
+    }
+
+    @Test
+    void replaysRecordsInOrder() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 10)) {
+            append(wal, "one").commit();
+            append(wal, "two, a little longer").commit();
+            append(wal, "3").commit();
+        }
+        assertEquals(List.of("one", "two, a little longer", "3"), replay());
+    }
+
+    @Test
+    void replaySkipsATornTail() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 10)) {
+            append(wal, "sealed").commit();
+            append(wal, "also sealed").commit();
+            // killed while copying the payload: reserved and half written, never sealed
+            WriteAheadLog.Slot torn = wal.reserve(20);
+            torn.buf.put(torn.offset, "half".getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(List.of("sealed", "also sealed"), replay());
+
+        // the restarted server appends to a new segment after it
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 10)) {
+            append(wal, "after restart").commit();
+        }
+        assertEquals(List.of("sealed", "also sealed", "after restart"), replay());
+    }
+
+    @Test
+    void replayGetsPastAHole() throws IOException {
+        try (WriteAheadLog wal = new WriteAheadLog(dir, 10)) {
+            append(wal, "before").commit();
+            // a writer killed after reserving, before its header reached the mapping: zeros
+            WriteAheadLog.Slot lost = wal.reserve(40);
+            for (int i = lost.offset - WriteAheadLog.HEADER; i < lost.offset; i++) lost.buf.put(i, (byte) 0);
+            append(wal, "after").commit();
+            append(wal, "and more").commit();
+        }
+        assertEquals(List.of("before", "after", "and more"), replay());
+    }
+}